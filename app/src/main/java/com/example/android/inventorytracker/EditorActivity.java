@@ -5,6 +5,7 @@ import android.app.LoaderManager;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
+import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
@@ -29,6 +30,12 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     /** Identifier for the Inventory loader */
     private static final int EDITOR_INVENTORY_LOADER = 0;
 
+    /**
+     * Result code asking MainActivity to delete the item whose URI is the result data. The delete
+     * runs there, off the UI thread, and is followed by the offer to undo it.
+     */
+    public static final int RESULT_DELETE_ITEM = RESULT_FIRST_USER;
+
     /** Content URI for the clicked pet on MainActivity */
     private Uri mClickedItemUri;
 
@@ -110,8 +117,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         switch (item.getItemId()) {
             // Activates when "Save" menu is selected
             case R.id.action_save:
-                saveItem();
-                finish();
+                if (saveItem()) {
+                    finish();
+                }
                 return true;
             // Activates when "Delete" menu is selected
             case R.id.action_delete:
@@ -162,8 +170,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     /**
      * Saves item, either by updating existing item or adding a new one
+     *
+     * @return false if the item was refused and the editor should stay open
      */
-    private void saveItem() {
+    private boolean saveItem() {
         // Gets the EditText field texts
         String nameString = mNameEditText.getText().toString();
         String descriptionString = mDescriptionEditText.getText().toString();
@@ -173,7 +183,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         // Do nothing if ALL fields are empty
         if (mClickedItemUri == null && TextUtils.isEmpty(nameString + descriptionString +
                 priceString + inStockString)) {
-            return;
+            return true;
         }
 
         // Sets default value of Price and In Stock to 0
@@ -203,26 +213,29 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
             }
         // Updates existing item
         } else {
-            int rowUpdated = getContentResolver().update(mClickedItemUri, contentValues, null, null);
+            int rowUpdated;
+            try {
+                rowUpdated = getContentResolver().update(mClickedItemUri, contentValues, null, null);
+            } catch (IllegalArgumentException e) {
+                // In Stock is lower than what is held in other locations
+                Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
+                return false;
+            }
             if (rowUpdated > 0) {
                 Toast.makeText(this, "Item updated.", Toast.LENGTH_SHORT).show();
             } else {
                 Toast.makeText(this, "Error updating item.", Toast.LENGTH_SHORT).show();
             }
         }
+        return true;
     }
 
     /**
-     * Deletes item
+     * Deletes item, by handing it back to MainActivity
      */
     private void deleteItem() {
         if (mClickedItemUri != null) {
-            int rowsDeleted = getContentResolver().delete(mClickedItemUri, null, null);
-            if (rowsDeleted > 0) {
-                Toast.makeText(this, "Item deleted.", Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, "Error deleting item.", Toast.LENGTH_SHORT).show();
-            }
+            setResult(RESULT_DELETE_ITEM, new Intent().setData(mClickedItemUri));
         }
         finish();
     }
@@ -11,8 +11,13 @@ import android.widget.TextView;
 
 import com.example.android.inventorytracker.data.InventoryContract.InventoryEntry;
 
+import java.util.Locale;
+
 public class InventoryCursorAdapter extends CursorAdapter {
 
+    /** Lowest sales rate shown, below which it would read as 0.0 per day */
+    private static final double MIN_SHOWN_SALES_RATE = 0.05;
+
     public InventoryCursorAdapter(Context context, Cursor cursor) {
         super(context, cursor, 0);
     }
@@ -29,11 +34,14 @@ public class InventoryCursorAdapter extends CursorAdapter {
         TextView descriptionTextView = view.findViewById(R.id.description_text_view);
         TextView priceTextView = view.findViewById(R.id.price_text_view);
         TextView inStockTextView = view.findViewById(R.id.in_stock_text_view);
+        TextView forecastTextView = view.findViewById(R.id.forecast_text_view);
 
         String itemName = cursor.getString(cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_NAME));
         String description = cursor.getString(cursor.getColumnIndex(InventoryEntry.COLUMN_DESCRIPTION));
         int price = cursor.getInt(cursor.getColumnIndex(InventoryEntry.COLUMN_PRICE));
         int quantity = cursor.getInt(cursor.getColumnIndex(InventoryEntry.COLUMN_QUANTITY));
+        double salesRate = cursor.getDouble(cursor.getColumnIndex(InventoryEntry.COLUMN_SALES_RATE));
+        long lastSaleAt = cursor.getLong(cursor.getColumnIndex(InventoryEntry.COLUMN_LAST_SALE_AT));
 
         if (TextUtils.isEmpty(itemName)) {
             itemName = "Unknown Item";
@@ -44,5 +52,17 @@ public class InventoryCursorAdapter extends CursorAdapter {
         descriptionTextView.setText(description);
         priceTextView.setText("₱ " + price);
         inStockTextView.setText("In Stock: " + quantity);
+
+        // Shows the sales rate and forecast only for items that are still selling, fading the rate
+        // by the time since the last sale so items that stopped selling drop out
+        double currentRate = InventoryEntry.decayedSalesRate(salesRate, lastSaleAt, System.currentTimeMillis());
+        if (currentRate >= MIN_SHOWN_SALES_RATE) {
+            long daysLeft = (long) (quantity / currentRate);
+            forecastTextView.setText(String.format(Locale.getDefault(),
+                    "Sells %.1f/day, out in %d days", currentRate, daysLeft));
+            forecastTextView.setVisibility(View.VISIBLE);
+        } else {
+            forecastTextView.setVisibility(View.GONE);
+        }
     }
 }
@@ -1,25 +1,38 @@
 package com.example.android.inventorytracker;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.RadioGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.inventorytracker.data.InventoryContract;
 import com.example.android.inventorytracker.data.InventoryContract.InventoryEntry;
 
+import java.lang.ref.WeakReference;
+
 /**
  * Displays list of items in the inventory.
  */
@@ -28,9 +41,21 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
     /** Identifier for the items data loader */
     private static final int INVENTORY_LOADER = 0;
 
+    /** Request code for editing an item, which returns whether the item was deleted */
+    private static final int EDIT_ITEM_REQUEST = 1;
+
     /** Adapter for the ListView */
     private InventoryCursorAdapter mInventoryCursorAdapter;
 
+    /** ListView of the items, which allows selecting several items with a long press */
+    private ListView mMainListView;
+
+    /** Flag that keeps track whether the list shows the items running out soonest */
+    private boolean mSortByStockout;
+
+    /** Key for saving {@link #mSortByStockout} across configuration changes */
+    private static final String STATE_SORT_BY_STOCKOUT = "sort_by_stockout";
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -47,15 +72,15 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
         });
 
         // Find ListView
-        ListView mainListView = findViewById(R.id.main_list_view);
+        mMainListView = findViewById(R.id.main_list_view);
         // Set EmptyView
         TextView emptyView = findViewById(R.id.empty_view);
-        mainListView.setEmptyView(emptyView);
+        mMainListView.setEmptyView(emptyView);
         // Set Adapter
         mInventoryCursorAdapter = new InventoryCursorAdapter(this, null);
-        mainListView.setAdapter(mInventoryCursorAdapter);
+        mMainListView.setAdapter(mInventoryCursorAdapter);
         // Set OnItemClickListener
-        mainListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mMainListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
                 // Content URI of the clicked item
@@ -63,27 +88,127 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
                 // Intent to open EditorActivity for editing clicked item
                 Intent intent = new Intent(MainActivity.this, EditorActivity.class);
                 intent.setData(clickedItemUri);
-                startActivity(intent);
+                startActivityForResult(intent, EDIT_ITEM_REQUEST);
             }
         });
+        // Long press starts selecting items for batch operations
+        mMainListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        mMainListView.setMultiChoiceModeListener(mMultiChoiceModeListener);
+
+        // Restore the sort order before the first load
+        if (savedInstanceState != null) {
+            mSortByStockout = savedInstanceState.getBoolean(STATE_SORT_BY_STOCKOUT);
+        }
 
         // Initialize Loader
         getLoaderManager().initLoader(INVENTORY_LOADER, null, this);
     }
 
+    /**
+     * Shows the number of selected items and runs batch operations on them
+     */
+    private AbsListView.MultiChoiceModeListener mMultiChoiceModeListener = new AbsListView.MultiChoiceModeListener() {
+        @Override
+        public void onItemCheckedStateChanged(ActionMode actionMode, int position, long id, boolean checked) {
+            actionMode.setTitle(mMainListView.getCheckedItemCount() + " selected");
+        }
+
+        @Override
+        public boolean onCreateActionMode(ActionMode actionMode, Menu menu) {
+            actionMode.getMenuInflater().inflate(R.menu.menu_main_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode actionMode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode actionMode, MenuItem menuItem) {
+            long[] itemIds = mMainListView.getCheckedItemIds();
+            switch (menuItem.getItemId()) {
+                // Activates when "Select All" menu is selected
+                case R.id.action_batch_select_all:
+                    for (int position = 0; position < mMainListView.getCount(); position++) {
+                        mMainListView.setItemChecked(position, true);
+                    }
+                    return true;
+                // Activates when "Delete" menu is selected
+                case R.id.action_batch_delete:
+                    showBatchDeleteConfirmationDialog(actionMode, itemIds);
+                    return true;
+                // Activates when "Change Price" menu is selected
+                case R.id.action_batch_change_price:
+                    showBatchPriceDialog(actionMode, itemIds);
+                    return true;
+                // Activates when "Adjust Stock" menu is selected
+                case R.id.action_batch_adjust_stock:
+                    showBatchStockDialog(actionMode, itemIds);
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode actionMode) {
+        }
+    };
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        // Diagnostics are only offered in debug builds
+        menu.setGroupVisible(R.id.group_debug, BuildConfig.DEBUG);
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        menu.findItem(R.id.action_sort_stockout).setChecked(mSortByStockout);
+        if (BuildConfig.DEBUG) {
+            // Diagnostics live in the provider and outlast the activity; this reads the flag only
+            Bundle diagnostics = getContentResolver().call(InventoryEntry.CONTENT_URI,
+                    InventoryContract.METHOD_GET_DIAGNOSTICS_ENABLED, null, null);
+            menu.findItem(R.id.action_diagnostics).setChecked(diagnostics != null &&
+                    diagnostics.getBoolean(InventoryContract.EXTRA_ENABLED));
+        }
+        return true;
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SORT_BY_STOCKOUT, mSortByStockout);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
+            // Activates when "Running Out Soonest" menu is selected
+            case R.id.action_sort_stockout:
+                mSortByStockout = !mSortByStockout;
+                item.setChecked(mSortByStockout);
+                getLoaderManager().restartLoader(INVENTORY_LOADER, null, this);
+                return true;
             // Activates when "Delete ALl" menu is selected
             case R.id.action_delete_all:
                 deleteAllItems();
                 return true;
+            // Activates when "Diagnostics" debug menu is selected
+            case R.id.action_diagnostics:
+                item.setChecked(!item.isChecked());
+                Bundle extras = new Bundle();
+                extras.putBoolean(InventoryContract.EXTRA_ENABLED, item.isChecked());
+                getContentResolver().call(InventoryEntry.CONTENT_URI,
+                        InventoryContract.METHOD_SET_DIAGNOSTICS, null, extras);
+                return true;
+            // Activates when "Show Diagnostics" debug menu is selected
+            case R.id.action_show_diagnostics:
+                showDiagnosticsDialog();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -93,19 +218,253 @@ public class MainActivity extends AppCompatActivity implements LoaderManager.Loa
      * Deletes all items in the inventory.
      */
     private void deleteAllItems() {
-        int rowsDeleted = getContentResolver().delete(InventoryEntry.CONTENT_URI, null, null);
-        Toast.makeText(this, "Deleted all " + rowsDeleted + " items.", Toast.LENGTH_SHORT).show();
+        new ProviderCallTask(this, InventoryContract.METHOD_DELETE_ALL).execute((Bundle) null);
+    }
+
+    /**
+     * Deletes the given items
+     */
+    private void deleteItems(long[] itemIds) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, itemIds);
+        new ProviderCallTask(this, InventoryContract.METHOD_BATCH_DELETE).execute(extras);
+    }
+
+    /**
+     * Shows the outcome of a delete or undo run by {@link ProviderCallTask}
+     */
+    private void onProviderCallFinished(String method, Bundle result) {
+        int rows = result == null ? 0 : result.getInt(InventoryContract.EXTRA_ROWS_AFFECTED);
+        if (InventoryContract.METHOD_UNDO_DELETE.equals(method)) {
+            Toast.makeText(this, "Restored " + rows + " items.", Toast.LENGTH_SHORT).show();
+        } else {
+            showUndoDeleteSnackbar(result);
+        }
+    }
+
+    /**
+     * Shows a Snackbar allowing the user to restore the items that have just been deleted
+     */
+    private void showUndoDeleteSnackbar(Bundle deleteResult) {
+        int rowsDeleted = deleteResult == null ? 0 : deleteResult.getInt(InventoryContract.EXTRA_ROWS_AFFECTED);
+        if (rowsDeleted == 0) {
+            Toast.makeText(this, "No items were deleted.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String message = rowsDeleted == 1 ? "Item deleted." : "Deleted " + rowsDeleted + " items.";
+
+        // Undo restores this delete only, by the deletion time the provider gave it
+        final Bundle undoExtras = new Bundle();
+        undoExtras.putLong(InventoryContract.EXTRA_DELETED_AT,
+                deleteResult.getLong(InventoryContract.EXTRA_DELETED_AT));
+        Snackbar.make(mMainListView, message, Snackbar.LENGTH_LONG)
+                .setAction("Undo", new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        new ProviderCallTask(MainActivity.this, InventoryContract.METHOD_UNDO_DELETE)
+                                .execute(undoExtras);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Runs a provider call that may change every item, such as a delete or its undo, on a
+     * background thread, and hands the result back to the activity if it is still around
+     */
+    private static class ProviderCallTask extends AsyncTask<Bundle, Void, Bundle> {
+
+        private final WeakReference<MainActivity> mActivityReference;
+        private final ContentResolver mContentResolver;
+        private final String mMethod;
+
+        ProviderCallTask(MainActivity activity, String method) {
+            mActivityReference = new WeakReference<>(activity);
+            mContentResolver = activity.getContentResolver();
+            mMethod = method;
+        }
+
+        @Override
+        protected Bundle doInBackground(Bundle... extras) {
+            return mContentResolver.call(InventoryEntry.CONTENT_URI, mMethod, null, extras[0]);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle result) {
+            MainActivity activity = mActivityReference.get();
+            if (activity != null && !activity.isFinishing()) {
+                activity.onProviderCallFinished(mMethod, result);
+            }
+        }
+    }
+
+    /**
+     * Shows an AlertDialog with the provider operations timed by diagnostics, slowest query plans
+     * included
+     */
+    private void showDiagnosticsDialog() {
+        Bundle result = getContentResolver().call(InventoryEntry.CONTENT_URI,
+                InventoryContract.METHOD_DUMP_DIAGNOSTICS, null, null);
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Diagnostics");
+        builder.setMessage(result.getString(InventoryContract.EXTRA_DIAGNOSTICS));
+        builder.setPositiveButton("Close", null);
+        builder.setNeutralButton("Clear", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                getContentResolver().call(InventoryEntry.CONTENT_URI,
+                        InventoryContract.METHOD_CLEAR_DIAGNOSTICS, null, null);
+            }
+        });
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == EDIT_ITEM_REQUEST && resultCode == EditorActivity.RESULT_DELETE_ITEM
+                && data != null && data.getData() != null) {
+            deleteItems(new long[]{ContentUris.parseId(data.getData())});
+        }
+    }
+
+    /**
+     * Shows an AlertDialog warning the user that the selected items are to be deleted
+     */
+    private void showBatchDeleteConfirmationDialog(final ActionMode actionMode, final long[] itemIds) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage("Delete " + itemIds.length + " items?");
+        builder.setPositiveButton("Delete", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                actionMode.finish();
+                deleteItems(itemIds);
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Shows an AlertDialog asking for a percentage or fixed price change of the selected items
+     */
+    private void showBatchPriceDialog(final ActionMode actionMode, final long[] itemIds) {
+        final View dialogView = getLayoutInflater().inflate(R.layout.dialog_batch_price, null);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Change price of " + itemIds.length + " items");
+        builder.setView(dialogView);
+        builder.setPositiveButton("Change", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                EditText changeEditText = dialogView.findViewById(R.id.price_change_edit_text);
+                RadioGroup changeRadioGroup = dialogView.findViewById(R.id.price_change_radio_group);
+                Integer change = parseChange(changeEditText);
+                if (change == null) {
+                    return;
+                }
+
+                Bundle extras = new Bundle();
+                extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, itemIds);
+                extras.putInt(InventoryContract.EXTRA_PRICE_CHANGE, change);
+                extras.putBoolean(InventoryContract.EXTRA_PRICE_CHANGE_IS_PERCENT,
+                        changeRadioGroup.getCheckedRadioButtonId() == R.id.price_change_percent_radio_button);
+                int rowsUpdated = callBatch(InventoryContract.METHOD_BATCH_CHANGE_PRICE, extras);
+                Toast.makeText(MainActivity.this, "Updated " + rowsUpdated + " items.", Toast.LENGTH_SHORT).show();
+                actionMode.finish();
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Shows an AlertDialog asking for the amount of stock to add to or take from the selected items
+     */
+    private void showBatchStockDialog(final ActionMode actionMode, final long[] itemIds) {
+        final View dialogView = getLayoutInflater().inflate(R.layout.dialog_batch_stock, null);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle("Adjust stock of " + itemIds.length + " items");
+        builder.setView(dialogView);
+        builder.setPositiveButton("Adjust", new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialogInterface, int i) {
+                EditText changeEditText = dialogView.findViewById(R.id.stock_change_edit_text);
+                Integer change = parseChange(changeEditText);
+                if (change == null) {
+                    return;
+                }
+
+                Bundle extras = new Bundle();
+                extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, itemIds);
+                extras.putInt(InventoryContract.EXTRA_QUANTITY, change);
+                Bundle result = getContentResolver().call(InventoryEntry.CONTENT_URI,
+                        InventoryContract.METHOD_BATCH_ADJUST_STOCK, null, extras);
+                int rowsUpdated = result.getInt(InventoryContract.EXTRA_ROWS_AFFECTED);
+                int rowsClamped = result.getInt(InventoryContract.EXTRA_ROWS_CLAMPED);
+                String message = "Updated " + rowsUpdated + " items.";
+                if (rowsClamped > 0) {
+                    message += " " + rowsClamped + " had less stock in the Store and went down to 0.";
+                }
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_LONG).show();
+                actionMode.finish();
+            }
+        });
+        builder.setNegativeButton("Cancel", null);
+
+        AlertDialog alertDialog = builder.create();
+        alertDialog.show();
+    }
+
+    /**
+     * Reads a signed change from an EditText, returning null if it is empty or invalid
+     */
+    private Integer parseChange(EditText changeEditText) {
+        String changeString = changeEditText.getText().toString();
+        if (TextUtils.isEmpty(changeString)) {
+            Toast.makeText(this, "Enter a change.", Toast.LENGTH_SHORT).show();
+            return null;
+        }
+        try {
+            return Integer.parseInt(changeString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, "Invalid change.", Toast.LENGTH_SHORT).show();
+            return null;
+        }
+    }
+
+    /**
+     * Runs a batch operation on the provider, returning the number of items it changed
+     */
+    private int callBatch(String method, Bundle extras) {
+        Bundle result = getContentResolver().call(InventoryEntry.CONTENT_URI, method, null, extras);
+        return result == null ? 0 : result.getInt(InventoryContract.EXTRA_ROWS_AFFECTED);
     }
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Queries Inventory data on a background thread
+        // Queries Inventory data on a background thread, limited to the items that are selling
+        // when sorting by the soonest to run out
+        if (mSortByStockout) {
+            return new CursorLoader(this,
+                    InventoryEntry.CONTENT_URI,
+                    null,
+                    InventoryEntry.SELECTION_FORECAST,
+                    null,
+                    InventoryEntry.SORT_STOCKOUT_SOONEST);
+        }
         return new CursorLoader(this,
                 InventoryEntry.CONTENT_URI,
                 null,
                 null,
                 null,
-                null);
+                InventoryEntry.SORT_NAME);
     }
 
     @Override
@@ -9,6 +9,54 @@ public final class InventoryContract {
     public static final String CONTENT_AUTHORITY = "com.example.android.inventorytracker";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_ITEMS = "items";
+    public static final String PATH_LOCATIONS = "locations";
+    public static final String PATH_STOCK = "stock";
+
+    /** Provider call() method that moves stock of an item from one location to another */
+    public static final String METHOD_TRANSFER_STOCK = "transferStock";
+    public static final String EXTRA_ITEM_ID = "itemId";
+    public static final String EXTRA_FROM_LOCATION_ID = "fromLocationId";
+    public static final String EXTRA_TO_LOCATION_ID = "toLocationId";
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /** Provider call() methods that change a set of items in a single statement */
+    public static final String METHOD_BATCH_DELETE = "batchDelete";
+    public static final String METHOD_BATCH_CHANGE_PRICE = "batchChangePrice";
+    public static final String METHOD_BATCH_ADJUST_STOCK = "batchAdjustStock";
+    public static final String EXTRA_ITEM_IDS = "itemIds";
+    public static final String EXTRA_PRICE_CHANGE = "priceChange";
+    public static final String EXTRA_PRICE_CHANGE_IS_PERCENT = "priceChangeIsPercent";
+    public static final String EXTRA_ROWS_AFFECTED = "rowsAffected";
+    /** Number of items whose stock was taken down to zero rather than by the full change */
+    public static final String EXTRA_ROWS_CLAMPED = "rowsClamped";
+
+    /** Provider call() method that soft deletes every item, returning its deletion time */
+    public static final String METHOD_DELETE_ALL = "deleteAll";
+    /** Provider call() method that restores the items of the delete with the given deletion time */
+    public static final String METHOD_UNDO_DELETE = "undoDelete";
+    public static final String EXTRA_DELETED_AT = "deletedAt";
+    /** Provider call() method that physically removes one chunk of soft deleted items */
+    public static final String METHOD_PURGE_DELETED = "purgeDeleted";
+    public static final String EXTRA_DELETED_BEFORE = "deletedBefore";
+    public static final String EXTRA_LIMIT = "limit";
+
+    /** Provider call() method that takes sold items out of the default location stock */
+    public static final String METHOD_RECORD_SALE = "recordSale";
+    /**
+     * Provider call() method that moves up to the given limit of past stock-out forecasts to the
+     * sales rate decayed until now, for items that have stopped selling
+     */
+    public static final String METHOD_REFRESH_FORECASTS = "refreshForecasts";
+
+    /** Provider call() methods that turn on, read and clear the timing of provider operations */
+    public static final String METHOD_SET_DIAGNOSTICS = "setDiagnostics";
+    /** Provider call() method returning only whether diagnostics are on, without the dump */
+    public static final String METHOD_GET_DIAGNOSTICS_ENABLED = "getDiagnosticsEnabled";
+    public static final String METHOD_DUMP_DIAGNOSTICS = "dumpDiagnostics";
+    public static final String METHOD_CLEAR_DIAGNOSTICS = "clearDiagnostics";
+    public static final String EXTRA_ENABLED = "enabled";
+    public static final String EXTRA_THRESHOLD_MILLIS = "thresholdMillis";
+    public static final String EXTRA_DIAGNOSTICS = "diagnostics";
 
     private InventoryContract() {
     }
@@ -28,6 +76,91 @@ public final class InventoryContract {
         public static final String COLUMN_ITEM_NAME = "name";
         public static final String COLUMN_DESCRIPTION = "description";
         public static final String COLUMN_PRICE = "price";
+        /** Total on-hand across all locations, maintained from the stock table by triggers */
         public static final String COLUMN_QUANTITY = "quantity";
+        /** Time an item was deleted, or null for items still in the inventory */
+        public static final String COLUMN_DELETED_AT = "deleted_at";
+        /** Exponentially weighted number of items sold per day, updated on each stock decrement */
+        public static final String COLUMN_SALES_RATE = "sales_rate";
+        public static final String COLUMN_LAST_SALE_AT = "last_sale_at";
+        /** Time the item is forecast to run out at its sales rate, or null if it is not selling */
+        public static final String COLUMN_STOCKOUT_AT = "stockout_at";
+
+        /** Days over which past sales fade out of the sales rate */
+        public static final int SALES_RATE_WINDOW_DAYS = 7;
+
+        private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+        /** Default sort order of the list, read in order from the index over live items */
+        public static final String SORT_NAME = COLUMN_ITEM_NAME + " ASC";
+
+        /** Selection and sort order listing the items that will run out soonest first */
+        public static final String SELECTION_FORECAST = COLUMN_STOCKOUT_AT + " IS NOT NULL";
+        public static final String SORT_STOCKOUT_SOONEST = COLUMN_STOCKOUT_AT + " ASC";
+
+        /** Content URI for the stock of a single item in every location */
+        public static Uri buildStockUri(long itemId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(itemId))
+                    .appendPath(PATH_STOCK)
+                    .build();
+        }
+
+        /** Content URI for the stock of a single item in a single location */
+        public static Uri buildStockUri(long itemId, long locationId) {
+            return buildStockUri(itemId).buildUpon()
+                    .appendPath(String.valueOf(locationId))
+                    .build();
+        }
+
+        /**
+         * Sales rate faded by the days since the last sale, as the next sale would fade it:
+         * rate * W / (W + D). The stored rate only changes on a sale, so this is the rate to show.
+         */
+        public static double decayedSalesRate(double salesRate, long lastSaleAt, long now) {
+            double daysSinceSale = Math.max(0, (now - lastSaleAt) / (double) DAY_MILLIS);
+            return salesRate * SALES_RATE_WINDOW_DAYS / (SALES_RATE_WINDOW_DAYS + daysSinceSale);
+        }
+    }
+
+    public static abstract class LocationEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_LOCATIONS);
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        public static final String TABLE_NAME = "locations";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_LOCATION_NAME = "location_name";
+
+        /** Location seeded on creation; quantities entered in the editor are kept here */
+        public static final long DEFAULT_LOCATION_ID = 1;
+
+        /** Content URI for the stock of every item in a single location */
+        public static Uri buildStockUri(long locationId) {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(locationId))
+                    .appendPath(PATH_STOCK)
+                    .build();
+        }
+    }
+
+    public static abstract class StockEntry implements BaseColumns {
+
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK;
+
+        public static final String TABLE_NAME = "item_stock";
+
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_ITEM_ID = "item_id";
+        public static final String COLUMN_LOCATION_ID = "location_id";
+        public static final String COLUMN_QUANTITY = "stock_quantity";
     }
 }
@@ -1,16 +1,22 @@
 package com.example.android.inventorytracker.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.inventorytracker.data.InventoryContract.InventoryEntry;
+import com.example.android.inventorytracker.data.InventoryContract.LocationEntry;
+import com.example.android.inventorytracker.data.InventoryContract.StockEntry;
 
 public class InventoryDbHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 6;
     private static final String DATABASE_NAME = "inventorytracker.db";
 
+    /** Locations seeded when the stock tables are created, the first one being the default */
+    private static final String[] DEFAULT_LOCATIONS = {"Store", "Back Room", "Warehouse"};
+
     public InventoryDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
@@ -26,10 +32,182 @@ public class InventoryDbHelper extends SQLiteOpenHelper {
                 InventoryEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0);";
 
         sqLiteDatabase.execSQL(SQL_CREATE_INVENTORY_TABLE);
+        createStockTables(sqLiteDatabase);
+        addSoftDelete(sqLiteDatabase);
+        addSalesForecast(sqLiteDatabase);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createStockTables(sqLiteDatabase);
+        }
+        if (oldVersion < 3) {
+            addSoftDelete(sqLiteDatabase);
+        }
+        if (oldVersion < 4) {
+            addSalesForecast(sqLiteDatabase);
+        }
+        if (oldVersion < 5 && !supportsPartialIndexes(sqLiteDatabase)) {
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS idx_items_deleted;");
+            createLiveItemsFallbackIndex(sqLiteDatabase);
+        }
+        if (oldVersion < 6 && !supportsPartialIndexes(sqLiteDatabase)) {
+            sqLiteDatabase.execSQL("DROP INDEX IF EXISTS idx_items_stockout;");
+            createStockoutFallbackIndex(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Creates the locations and per-location stock tables. Existing item quantities are moved into
+     * the default location, and triggers keep the item quantity as the total across all locations
+     * so the list never has to sum the stock table.
+     */
+    private void createStockTables(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TABLE " +
+                LocationEntry.TABLE_NAME + " (" +
+                LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                LocationEntry.COLUMN_LOCATION_NAME + " TEXT NOT NULL UNIQUE);");
+
+        sqLiteDatabase.execSQL("CREATE TABLE " +
+                StockEntry.TABLE_NAME + " (" +
+                StockEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                StockEntry.COLUMN_ITEM_ID + " INTEGER NOT NULL, " +
+                StockEntry.COLUMN_LOCATION_ID + " INTEGER NOT NULL, " +
+                StockEntry.COLUMN_QUANTITY + " INTEGER NOT NULL DEFAULT 0 CHECK (" +
+                StockEntry.COLUMN_QUANTITY + " >= 0));");
+
+        // Per item lookups and the uniqueness of an item within a location
+        sqLiteDatabase.execSQL("CREATE UNIQUE INDEX idx_stock_item_location ON " +
+                StockEntry.TABLE_NAME + " (" +
+                StockEntry.COLUMN_ITEM_ID + ", " + StockEntry.COLUMN_LOCATION_ID + ");");
+        // Per location lookups
+        sqLiteDatabase.execSQL("CREATE INDEX idx_stock_location_item ON " +
+                StockEntry.TABLE_NAME + " (" +
+                StockEntry.COLUMN_LOCATION_ID + ", " + StockEntry.COLUMN_ITEM_ID + ");");
+
+        for (String locationName : DEFAULT_LOCATIONS) {
+            sqLiteDatabase.execSQL("INSERT INTO " + LocationEntry.TABLE_NAME + " (" +
+                    LocationEntry.COLUMN_LOCATION_NAME + ") VALUES (?);", new Object[]{locationName});
+        }
+
+        // Existing quantities go to the default location before the rollup triggers exist
+        sqLiteDatabase.execSQL("INSERT INTO " + StockEntry.TABLE_NAME + " (" +
+                StockEntry.COLUMN_ITEM_ID + ", " +
+                StockEntry.COLUMN_LOCATION_ID + ", " +
+                StockEntry.COLUMN_QUANTITY + ") SELECT " +
+                InventoryEntry._ID + ", " +
+                LocationEntry.DEFAULT_LOCATION_ID + ", " +
+                InventoryEntry.COLUMN_QUANTITY + " FROM " + InventoryEntry.TABLE_NAME + ";");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER trg_stock_insert AFTER INSERT ON " +
+                StockEntry.TABLE_NAME + " BEGIN " +
+                "UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY +
+                " + NEW." + StockEntry.COLUMN_QUANTITY +
+                " WHERE " + InventoryEntry._ID + " = NEW." + StockEntry.COLUMN_ITEM_ID + "; END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER trg_stock_update AFTER UPDATE OF " +
+                StockEntry.COLUMN_QUANTITY + " ON " + StockEntry.TABLE_NAME + " BEGIN " +
+                "UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY +
+                " + NEW." + StockEntry.COLUMN_QUANTITY + " - OLD." + StockEntry.COLUMN_QUANTITY +
+                " WHERE " + InventoryEntry._ID + " = NEW." + StockEntry.COLUMN_ITEM_ID + "; END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER trg_stock_delete AFTER DELETE ON " +
+                StockEntry.TABLE_NAME + " BEGIN " +
+                "UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                InventoryEntry.COLUMN_QUANTITY + " = " + InventoryEntry.COLUMN_QUANTITY +
+                " - OLD." + StockEntry.COLUMN_QUANTITY +
+                " WHERE " + InventoryEntry._ID + " = OLD." + StockEntry.COLUMN_ITEM_ID + "; END;");
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER trg_item_delete AFTER DELETE ON " +
+                InventoryEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + StockEntry.TABLE_NAME +
+                " WHERE " + StockEntry.COLUMN_ITEM_ID + " = OLD." + InventoryEntry._ID + "; END;");
+    }
+
+    /**
+     * Adds the deleted-at column used to soft delete items until they are purged. Live items and
+     * purgeable items each get a partial index, so neither list loads nor the purge walk over the
+     * other kind of row. SQLite before 3.8.0 has no partial indexes, and gets one index leading
+     * with the deleted-at column instead.
+     */
+    private void addSoftDelete(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " +
+                InventoryEntry.COLUMN_DELETED_AT + " INTEGER;");
+
+        if (supportsPartialIndexes(sqLiteDatabase)) {
+            sqLiteDatabase.execSQL("CREATE INDEX idx_items_live ON " +
+                    InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_ITEM_NAME + ") WHERE " +
+                    InventoryEntry.COLUMN_DELETED_AT + " IS NULL;");
+            sqLiteDatabase.execSQL("CREATE INDEX idx_items_deleted ON " +
+                    InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_DELETED_AT + ") WHERE " +
+                    InventoryEntry.COLUMN_DELETED_AT + " IS NOT NULL;");
+        } else {
+            createLiveItemsFallbackIndex(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Index for SQLite without partial indexes. Live items share the null deleted-at, so the list
+     * still reads them in name order without sorting, and the purge and undo seek on its prefix.
+     */
+    private void createLiveItemsFallbackIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX idx_items_live ON " +
+                InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_DELETED_AT + ", " +
+                InventoryEntry.COLUMN_ITEM_NAME + ");");
+    }
+
+    /**
+     * Adds the sales rate and stock-out forecast columns. The provider updates the sales rate on
+     * each stock decrement, and a trigger keeps the forecast in step with the rate and quantity, so
+     * sorting by the soonest stock-out reads an index instead of computing over every item.
+     */
+    private void addSalesForecast(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " +
+                InventoryEntry.COLUMN_SALES_RATE + " REAL NOT NULL DEFAULT 0;");
+        sqLiteDatabase.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " +
+                InventoryEntry.COLUMN_LAST_SALE_AT + " INTEGER;");
+        sqLiteDatabase.execSQL("ALTER TABLE " + InventoryEntry.TABLE_NAME + " ADD COLUMN " +
+                InventoryEntry.COLUMN_STOCKOUT_AT + " INTEGER;");
+
+        if (supportsPartialIndexes(sqLiteDatabase)) {
+            sqLiteDatabase.execSQL("CREATE INDEX idx_items_stockout ON " +
+                    InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_STOCKOUT_AT + ") WHERE " +
+                    InventoryEntry.COLUMN_DELETED_AT + " IS NULL AND " +
+                    InventoryEntry.COLUMN_STOCKOUT_AT + " IS NOT NULL;");
+        } else {
+            createStockoutFallbackIndex(sqLiteDatabase);
+        }
+
+        // Forecasts from now, as the item is expected to sell at its current rate from here on
+        sqLiteDatabase.execSQL("CREATE TRIGGER trg_item_forecast AFTER UPDATE OF " +
+                InventoryEntry.COLUMN_QUANTITY + ", " + InventoryEntry.COLUMN_SALES_RATE + " ON " +
+                InventoryEntry.TABLE_NAME + " BEGIN " +
+                "UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                InventoryEntry.COLUMN_STOCKOUT_AT + " = CASE WHEN NEW." + InventoryEntry.COLUMN_SALES_RATE +
+                " > 0 THEN CAST(strftime('%s', 'now') AS INTEGER) * 1000 + CAST(NEW." +
+                InventoryEntry.COLUMN_QUANTITY + " / NEW." + InventoryEntry.COLUMN_SALES_RATE +
+                " * 86400000 AS INTEGER) ELSE NULL END" +
+                " WHERE " + InventoryEntry._ID + " = NEW." + InventoryEntry._ID + "; END;");
+    }
+
+    /**
+     * Index for SQLite without partial indexes, leading with the deleted-at column so the forecast
+     * sort reads live items in stock-out order rather than sorting them after the live items index
+     */
+    private void createStockoutFallbackIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX idx_items_stockout ON " +
+                InventoryEntry.TABLE_NAME + " (" + InventoryEntry.COLUMN_DELETED_AT + ", " +
+                InventoryEntry.COLUMN_STOCKOUT_AT + ");");
+    }
 
+    private static boolean supportsPartialIndexes(SQLiteDatabase sqLiteDatabase) {
+        String[] version = DatabaseUtils.stringForQuery(sqLiteDatabase, "SELECT sqlite_version()", null)
+                .split("\\.");
+        int major = Integer.parseInt(version[0]);
+        int minor = version.length > 1 ? Integer.parseInt(version[1]) : 0;
+        return major > 3 || (major == 3 && minor >= 8);
     }
 }
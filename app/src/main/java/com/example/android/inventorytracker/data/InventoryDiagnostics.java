@@ -0,0 +1,235 @@
+package com.example.android.inventorytracker.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Optional timing of InventoryProvider operations. While enabled, every operation is kept in a
+ * bounded ring buffer. Each statement is checked with EXPLAIN QUERY PLAN, cached per statement, so
+ * full table scans are flagged even while the table is still small and fast. Slow operations and
+ * full scans are logged with their plan, so that they can be found on a device without a profiler.
+ */
+public class InventoryDiagnostics {
+
+    private static final String LOG_TAG = InventoryDiagnostics.class.getSimpleName();
+
+    /** Number of operations kept, the oldest being overwritten first */
+    private static final int BUFFER_SIZE = 200;
+
+    public static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    /** Number of statements whose plan is kept, the least recently used being dropped first */
+    private static final int PLAN_CACHE_SIZE = 50;
+
+    /**
+     * Plan line of a full table scan: "SCAN items" on newer SQLite, "SCAN TABLE items" with an
+     * optional row estimate on older. Scans of constant rows or subqueries, and scans using an
+     * index, are not matched.
+     */
+    private static final Pattern FULL_SCAN =
+            Pattern.compile("^SCAN (TABLE )?\\w+( AS \\w+)?( \\(~\\d+ rows\\))?$");
+
+    private volatile boolean mEnabled;
+    private volatile long mThresholdMillis = DEFAULT_THRESHOLD_MILLIS;
+
+    private final Entry[] mEntries = new Entry[BUFFER_SIZE];
+    /** Total number of operations recorded, the next entry going at this count modulo the size */
+    private long mRecorded;
+
+    /** Plans by statement, which do not change while the schema stays the same */
+    private final Map<String, Plan> mPlans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Plan> eldest) {
+            return size() > PLAN_CACHE_SIZE;
+        }
+    };
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setEnabled(boolean enabled, long thresholdMillis) {
+        mEnabled = enabled;
+        mThresholdMillis = thresholdMillis;
+    }
+
+    /**
+     * Records an operation that started at startNanos. The statement, if any, is the SELECT that
+     * the operation ran or one reading the same rows, and is explained whatever its latency.
+     */
+    public void record(SQLiteOpenHelper dbHelper, String operation, Uri uri, String statement,
+                       String[] statementArgs, long startNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        Entry entry = new Entry();
+        entry.mTimeMillis = System.currentTimeMillis();
+        entry.mDurationMillis = (System.nanoTime() - startNanos) / 1e6;
+        entry.mOperation = operation;
+        entry.mUri = uri;
+        entry.mStatement = statement;
+
+        entry.mSlow = entry.mDurationMillis >= mThresholdMillis;
+        if (statement != null) {
+            entry.mPlan = planOf(dbHelper, statement, statementArgs);
+        }
+        if (entry.mSlow || entry.isFullScan()) {
+            Log.w(LOG_TAG, entry.toString());
+        }
+
+        synchronized (this) {
+            mEntries[(int) (mRecorded % BUFFER_SIZE)] = entry;
+            mRecorded++;
+        }
+    }
+
+    /**
+     * Returns the cached plan of the statement, explaining it on first use. Failed explains are
+     * not cached, so a statement that failed once is tried again.
+     */
+    private Plan planOf(SQLiteOpenHelper dbHelper, String statement, String[] statementArgs) {
+        synchronized (mPlans) {
+            Plan plan = mPlans.get(statement);
+            if (plan != null) {
+                return plan;
+            }
+        }
+        Plan plan = explain(dbHelper.getReadableDatabase(), statement, statementArgs);
+        if (!plan.mFailed) {
+            synchronized (mPlans) {
+                mPlans.put(statement, plan);
+            }
+        }
+        return plan;
+    }
+
+    private static Plan explain(SQLiteDatabase database, String statement, String[] statementArgs) {
+        Plan plan = new Plan();
+        StringBuilder text = new StringBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + statement, statementArgs);
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                String detail = cursor.getString(detailIndex);
+                if (FULL_SCAN.matcher(detail).matches()) {
+                    plan.mFullScan = true;
+                }
+                text.append("\n    ").append(detail);
+            }
+        } catch (SQLiteException e) {
+            plan.mFailed = true;
+            text.append("\n    EXPLAIN failed: ").append(e.getMessage());
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        plan.mText = text.toString();
+        return plan;
+    }
+
+    /**
+     * Formats the buffered operations, oldest first, along with counts of slow operations and
+     * full table scans among them.
+     */
+    public synchronized String dump() {
+        int count = (int) Math.min(mRecorded, BUFFER_SIZE);
+        Entry[] entries = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = mEntries[(int) ((mRecorded - count + i) % BUFFER_SIZE)];
+        }
+
+        int slow = 0;
+        int fullScans = 0;
+        for (Entry entry : entries) {
+            if (entry.mSlow) {
+                slow++;
+            }
+            if (entry.isFullScan()) {
+                fullScans++;
+            }
+        }
+
+        StringBuilder dump = new StringBuilder();
+        dump.append("Diagnostics ").append(mEnabled ? "on" : "off")
+                .append(", threshold ").append(mThresholdMillis).append(" ms\n")
+                .append(mRecorded).append(" operations recorded, last ").append(count)
+                .append(" kept: ").append(slow).append(" slow, ").append(fullScans).append(" full scans\n");
+        for (Entry entry : entries) {
+            dump.append('\n').append(entry);
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Drops the buffered operations and the cached plans, which are explained again on next use
+     */
+    public synchronized void clear() {
+        Arrays.fill(mEntries, null);
+        mRecorded = 0;
+        synchronized (mPlans) {
+            mPlans.clear();
+        }
+    }
+
+    private static class Plan {
+
+        String mText;
+        boolean mFullScan;
+        boolean mFailed;
+    }
+
+    private static class Entry {
+
+        long mTimeMillis;
+        double mDurationMillis;
+        String mOperation;
+        Uri mUri;
+        String mStatement;
+        Plan mPlan;
+        boolean mSlow;
+
+        boolean isFullScan() {
+            return mPlan != null && mPlan.mFullScan;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(new SimpleDateFormat("HH:mm:ss.SSS", Locale.US).format(new Date(mTimeMillis)))
+                    .append(' ').append(mOperation);
+            if (mUri != null) {
+                text.append(' ').append(mUri);
+            }
+            text.append(String.format(Locale.US, " %.1f ms", mDurationMillis));
+            if (mSlow) {
+                text.append(" SLOW");
+            }
+            if (isFullScan()) {
+                text.append(" FULL SCAN");
+            }
+            // Only the operations worth a look carry their statement and plan
+            if ((mSlow || isFullScan()) && !TextUtils.isEmpty(mStatement)) {
+                text.append("\n  ").append(mStatement);
+                if (mPlan != null) {
+                    text.append(mPlan.mText);
+                }
+            }
+            return text.toString();
+        }
+    }
+}
@@ -5,11 +5,21 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.example.android.inventorytracker.data.InventoryContract.InventoryEntry;
+import com.example.android.inventorytracker.data.InventoryContract.LocationEntry;
+import com.example.android.inventorytracker.data.InventoryContract.StockEntry;
+
+import java.util.HashMap;
 
 /**
  * ContentProvider for the Inventory
@@ -20,59 +30,198 @@ public class InventoryProvider extends ContentProvider {
 
     private InventoryDbHelper mInventoryDbHelper;
 
+    /** Deletion time given to the latest soft delete */
+    private long mLastDeletedAt;
+
+    /** Timing and query plans of provider operations, when turned on from the debug menu */
+    private final InventoryDiagnostics mDiagnostics = new InventoryDiagnostics();
+
     /** URI Matcher code for the content URI for the items table and a single item */
     private static final int ITEMS = 100;
     private static final int ITEM_ID = 101;
+    /** URI Matcher code for the stock of an item in every location and in a single location */
+    private static final int ITEM_STOCK = 102;
+    private static final int ITEM_LOCATION_STOCK = 103;
+    /** URI Matcher code for the locations table, a single location and its stock */
+    private static final int LOCATIONS = 200;
+    private static final int LOCATION_ID = 201;
+    private static final int LOCATION_STOCK = 202;
 
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
 
     static {
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS, ITEMS);
         sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_ITEMS + "/#", ITEM_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_STOCK, ITEM_STOCK);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_ITEMS + "/#/" + InventoryContract.PATH_STOCK + "/#", ITEM_LOCATION_STOCK);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY, InventoryContract.PATH_LOCATIONS + "/#", LOCATION_ID);
+        sUriMatcher.addURI(InventoryContract.CONTENT_AUTHORITY,
+                InventoryContract.PATH_LOCATIONS + "/#/" + InventoryContract.PATH_STOCK, LOCATION_STOCK);
+    }
+
+    /** Stock rows joined with their location, for the stock of a single item */
+    private static final String ITEM_STOCK_TABLES = StockEntry.TABLE_NAME + " INNER JOIN " +
+            LocationEntry.TABLE_NAME + " ON " +
+            StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + " = " +
+            LocationEntry.TABLE_NAME + "." + LocationEntry._ID;
+
+    /** Stock rows joined with their item, for the stock of a single location */
+    private static final String LOCATION_STOCK_TABLES = StockEntry.TABLE_NAME + " INNER JOIN " +
+            InventoryEntry.TABLE_NAME + " ON " +
+            StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + " = " +
+            InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID;
+
+    private static final HashMap<String, String> sItemStockProjectionMap = new HashMap<>();
+    private static final HashMap<String, String> sLocationStockProjectionMap = new HashMap<>();
+
+    static {
+        putQualified(sItemStockProjectionMap, StockEntry.TABLE_NAME, StockEntry._ID);
+        putQualified(sItemStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_ITEM_ID);
+        putQualified(sItemStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID);
+        putQualified(sItemStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_QUANTITY);
+        putQualified(sItemStockProjectionMap, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LOCATION_NAME);
+
+        putQualified(sLocationStockProjectionMap, StockEntry.TABLE_NAME, StockEntry._ID);
+        putQualified(sLocationStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_ITEM_ID);
+        putQualified(sLocationStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_LOCATION_ID);
+        putQualified(sLocationStockProjectionMap, StockEntry.TABLE_NAME, StockEntry.COLUMN_QUANTITY);
+        putQualified(sLocationStockProjectionMap, InventoryEntry.TABLE_NAME, InventoryEntry.COLUMN_ITEM_NAME);
+        putQualified(sLocationStockProjectionMap, InventoryEntry.TABLE_NAME, InventoryEntry.COLUMN_PRICE);
+    }
+
+    private static void putQualified(HashMap<String, String> projectionMap, String table, String column) {
+        projectionMap.put(column, table + "." + column + " AS " + column);
     }
 
     @Override
     public boolean onCreate() {
         mInventoryDbHelper = new InventoryDbHelper(getContext());
+        // Forecasts of items that stopped selling are refreshed in the next idle purge
+        InventoryPurgeService.schedule(getContext());
         return true;
     }
 
+    /**
+     * Queries through SQLiteQueryBuilder for every URI, so that the statement that runs is also
+     * the one explained by diagnostics.
+     */
     @Override
     public Cursor query(Uri uri, String[] projections, String selection, String[] selectionArgs, String sortOrder) {
-        SQLiteDatabase database = mInventoryDbHelper.getReadableDatabase();
-        Cursor cursor;
+        long startNanos = System.nanoTime();
+        String sql = null;
+        try {
+            SQLiteDatabase database = mInventoryDbHelper.getReadableDatabase();
+            SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
 
-        int match = sUriMatcher.match(uri);
-        switch (match) {
-            case ITEMS:
-                cursor = database.query(InventoryEntry.TABLE_NAME, projections, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case ITEM_ID:
-                selection = InventoryEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                cursor = database.query(InventoryEntry.TABLE_NAME, projections, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            default:
-                throw new IllegalArgumentException("Invalid uri for query: " + uri);
+            int match = sUriMatcher.match(uri);
+            switch (match) {
+                case ITEMS:
+                    queryBuilder.setTables(InventoryEntry.TABLE_NAME);
+                    queryBuilder.appendWhere(liveSelection(null));
+                    break;
+                case ITEM_ID:
+                    queryBuilder.setTables(InventoryEntry.TABLE_NAME);
+                    queryBuilder.appendWhere(liveSelection(null));
+                    selection = InventoryEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    break;
+                case ITEM_STOCK:
+                    queryBuilder.setTables(ITEM_STOCK_TABLES);
+                    queryBuilder.setProjectionMap(sItemStockProjectionMap);
+                    queryBuilder.appendWhere(StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + "=? AND " +
+                            liveItemSelection(StockEntry.TABLE_NAME));
+                    selectionArgs = withIdArgs(selectionArgs, parseParentId(uri));
+                    break;
+                case ITEM_LOCATION_STOCK:
+                    queryBuilder.setTables(ITEM_STOCK_TABLES);
+                    queryBuilder.setProjectionMap(sItemStockProjectionMap);
+                    queryBuilder.appendWhere(StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + "=? AND " +
+                            StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "=? AND " +
+                            liveItemSelection(StockEntry.TABLE_NAME));
+                    selectionArgs = withIdArgs(selectionArgs, parseParentId(uri), ContentUris.parseId(uri));
+                    break;
+                case LOCATIONS:
+                    queryBuilder.setTables(LocationEntry.TABLE_NAME);
+                    break;
+                case LOCATION_ID:
+                    queryBuilder.setTables(LocationEntry.TABLE_NAME);
+                    selection = LocationEntry._ID + "=?";
+                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
+                    break;
+                case LOCATION_STOCK:
+                    queryBuilder.setTables(LOCATION_STOCK_TABLES);
+                    queryBuilder.setProjectionMap(sLocationStockProjectionMap);
+                    queryBuilder.appendWhere(StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_LOCATION_ID + "=? AND " +
+                            InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL");
+                    selectionArgs = withIdArgs(selectionArgs, parseParentId(uri));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Invalid uri for query: " + uri);
+            }
+
+            sql = queryBuilder.buildQuery(projections, selection, null, null, sortOrder, null);
+            Cursor cursor = database.rawQuery(sql, selectionArgs);
+            if (mDiagnostics.isEnabled()) {
+                // The query only runs once the cursor is first read
+                cursor.getCount();
+            }
+
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            return cursor;
+        } finally {
+            if (mDiagnostics.isEnabled()) {
+                mDiagnostics.record(mInventoryDbHelper, "query", uri, sql, selectionArgs, startNanos);
+            }
         }
+    }
 
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+    /**
+     * Arguments for ids bound in the where clause of a URI, followed by the caller's selection
+     * arguments. Ids are bound rather than written into the statement, so that every item shares
+     * one statement in SQLite's statement cache and in the diagnostics plan cache.
+     */
+    private static String[] withIdArgs(String[] selectionArgs, long... ids) {
+        String[] args = new String[ids.length + (selectionArgs == null ? 0 : selectionArgs.length)];
+        for (int i = 0; i < ids.length; i++) {
+            args[i] = String.valueOf(ids[i]);
+        }
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, ids.length, selectionArgs.length);
+        }
+        return args;
     }
 
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
+        try {
+            return insertUri(uri, contentValues);
+        } finally {
+            if (mDiagnostics.isEnabled()) {
+                mDiagnostics.record(mInventoryDbHelper, "insert", uri, null, null, startNanos);
+            }
+        }
+    }
+
+    private Uri insertUri(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
                 return insertItem(uri, contentValues);
+            case LOCATIONS:
+                return insertLocation(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Invalid uri for insert: " + uri);
         }
     }
 
+    /**
+     * Inserts an item, placing its quantity in the default location. The item total is filled in
+     * by the stock triggers.
+     */
     private Uri insertItem(Uri uri, ContentValues contentValues) {
         String itemName = contentValues.getAsString(InventoryEntry.COLUMN_ITEM_NAME);
         if (itemName == null) {
@@ -87,8 +236,25 @@ public class InventoryProvider extends ContentProvider {
             throw new IllegalArgumentException("Item requires a valid quantity.");
         }
 
+        ContentValues itemValues = new ContentValues(contentValues);
+        itemValues.remove(InventoryEntry.COLUMN_QUANTITY);
+
         SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
-        long id = database.insert(InventoryEntry.TABLE_NAME, null, contentValues);
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(InventoryEntry.TABLE_NAME, null, itemValues);
+            if (id != -1) {
+                ContentValues stockValues = new ContentValues();
+                stockValues.put(StockEntry.COLUMN_ITEM_ID, id);
+                stockValues.put(StockEntry.COLUMN_LOCATION_ID, LocationEntry.DEFAULT_LOCATION_ID);
+                stockValues.put(StockEntry.COLUMN_QUANTITY, quantity == null ? 0 : quantity);
+                database.insertOrThrow(StockEntry.TABLE_NAME, null, stockValues);
+                database.setTransactionSuccessful();
+            }
+        } finally {
+            database.endTransaction();
+        }
 
         if (id == -1) {
             Log.v(LOG_TAG, "Failed to insert item with uri: " + uri);
@@ -99,21 +265,59 @@ public class InventoryProvider extends ContentProvider {
         return ContentUris.withAppendedId(uri, id);
     }
 
+    private Uri insertLocation(Uri uri, ContentValues contentValues) {
+        String locationName = contentValues.getAsString(LocationEntry.COLUMN_LOCATION_NAME);
+        if (TextUtils.isEmpty(locationName)) {
+            throw new IllegalArgumentException("Location requires a valid name.");
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        long id = database.insert(LocationEntry.TABLE_NAME, null, contentValues);
+
+        if (id == -1) {
+            Log.v(LOG_TAG, "Failed to insert location with uri: " + uri);
+            return null;
+        }
+
+        getContext().getContentResolver().notifyChange(uri, null);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        try {
+            return updateUri(uri, contentValues, selection, selectionArgs);
+        } finally {
+            if (mDiagnostics.isEnabled()) {
+                mDiagnostics.record(mInventoryDbHelper, "update", uri,
+                        itemRowsStatement(uri, selection), selectionArgsFor(uri, selectionArgs), startNanos);
+            }
+        }
+    }
+
+    private int updateUri(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                return updateItem(uri, contentValues, selection, selectionArgs);
+                return updateItem(uri, contentValues, liveSelection(selection), selectionArgs);
             case ITEM_ID:
-                selection = InventoryEntry._ID + "=?";
+                selection = liveSelection(InventoryEntry._ID + "=?");
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateItem(uri, contentValues, selection, selectionArgs);
+            case ITEM_LOCATION_STOCK:
+                return updateStock(uri, contentValues);
+            case LOCATION_ID:
+                return updateLocation(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Invalid uri for update: " + uri);
         }
     }
 
+    /**
+     * Updates items. A new quantity is applied to the default location, so that the total across
+     * all locations becomes the requested quantity.
+     */
     private int updateItem(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         if (contentValues.containsKey(InventoryEntry.COLUMN_ITEM_NAME)) {
             String itemName = contentValues.getAsString(InventoryEntry.COLUMN_ITEM_NAME);
@@ -127,9 +331,10 @@ public class InventoryProvider extends ContentProvider {
                 throw new IllegalArgumentException("Item requires a valid price.");
             }
         }
+        Integer quantity = null;
         if (contentValues.containsKey(InventoryEntry.COLUMN_QUANTITY)) {
-            Integer quantity = contentValues.getAsInteger(InventoryEntry.COLUMN_QUANTITY);
-            if (quantity != null && quantity < 0) {
+            quantity = contentValues.getAsInteger(InventoryEntry.COLUMN_QUANTITY);
+            if (quantity == null || quantity < 0) {
                 throw new IllegalArgumentException("Item requires a valid quantity.");
             }
         }
@@ -137,29 +342,712 @@ public class InventoryProvider extends ContentProvider {
             return 0;
         }
 
+        ContentValues itemValues = new ContentValues(contentValues);
+        itemValues.remove(InventoryEntry.COLUMN_QUANTITY);
+
         SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
-        int rowsUpdated = database.update(InventoryEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+        int rowsUpdated = 0;
+        database.beginTransaction();
+        try {
+            if (quantity != null) {
+                rowsUpdated = setTotalQuantity(database, quantity, selection, selectionArgs);
+            }
+            if (itemValues.size() != 0) {
+                rowsUpdated = database.update(InventoryEntry.TABLE_NAME, itemValues, selection, selectionArgs);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
         if (rowsUpdated != 0) {
             getContext().getContentResolver().notifyChange(uri, null);
+            // Location stock shows the item name and price, and the store stock set by the quantity
+            getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Sets the default location stock of the selected items so their totals equal the quantity.
+     * Fails on the stock quantity check when other locations already hold more than the quantity.
+     */
+    private int setTotalQuantity(SQLiteDatabase database, int quantity, String selection, String[] selectionArgs) {
+        String itemSelection = "SELECT " + InventoryEntry._ID + " FROM " + InventoryEntry.TABLE_NAME;
+        if (!TextUtils.isEmpty(selection)) {
+            itemSelection += " WHERE " + selection;
+        }
+
+        Object[] bindArgs = new Object[1 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        bindArgs[0] = quantity;
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, bindArgs, 1, selectionArgs.length);
+        }
+
+        recordSales(database, InventoryEntry.COLUMN_QUANTITY + " - " + quantity,
+                InventoryEntry._ID + " IN (" + itemSelection + ")", selectionArgs);
+
+        try {
+            database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " +
+                    StockEntry.COLUMN_QUANTITY + " = ? - (SELECT " +
+                    "COALESCE(SUM(other." + StockEntry.COLUMN_QUANTITY + "), 0) FROM " +
+                    StockEntry.TABLE_NAME + " other WHERE other." + StockEntry.COLUMN_ITEM_ID + " = " +
+                    StockEntry.TABLE_NAME + "." + StockEntry.COLUMN_ITEM_ID + " AND other." +
+                    StockEntry.COLUMN_LOCATION_ID + " != " + LocationEntry.DEFAULT_LOCATION_ID + ")" +
+                    " WHERE " + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID +
+                    " AND " + StockEntry.COLUMN_ITEM_ID + " IN (" + itemSelection + ")", bindArgs);
+        } catch (SQLiteConstraintException e) {
+            // Only the stock quantity check can fail here
+            throw new IllegalArgumentException("Quantity is less than the stock held in other locations.");
+        }
+        return (int) changes(database);
+    }
+
+    /**
+     * Sets the stock of an item in a single location, adding the stock row if there is none yet
+     */
+    private int updateStock(Uri uri, ContentValues contentValues) {
+        Integer quantity = contentValues.getAsInteger(StockEntry.COLUMN_QUANTITY);
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("Stock requires a valid quantity.");
+        }
+        long itemId = parseParentId(uri);
+        long locationId = ContentUris.parseId(uri);
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            if (!isLiveItem(database, itemId)) {
+                return 0;
+            }
+            recordSales(database, stockQuantityOf(locationId) + " - " + quantity,
+                    InventoryEntry._ID + "=" + itemId, null);
+            if (!setStock(database, itemId, locationId, quantity)) {
+                return 0;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyStockChange(locationId);
+        return 1;
+    }
+
+    private int updateLocation(Uri uri, ContentValues contentValues) {
+        if (contentValues.containsKey(LocationEntry.COLUMN_LOCATION_NAME)) {
+            String locationName = contentValues.getAsString(LocationEntry.COLUMN_LOCATION_NAME);
+            if (TextUtils.isEmpty(locationName)) {
+                throw new IllegalArgumentException("Location requires a valid name.");
+            }
+        }
+        if (contentValues.size() == 0) {
+            return 0;
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsUpdated = database.update(LocationEntry.TABLE_NAME, contentValues,
+                LocationEntry._ID + "=?", new String[]{String.valueOf(ContentUris.parseId(uri))});
+
+        if (rowsUpdated != 0) {
+            getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+            // Item stock rows show the location name
+            getContext().getContentResolver().notifyChange(InventoryEntry.CONTENT_URI, null);
         }
         return rowsUpdated;
     }
 
     @Override
-    public int delete(Uri uri, String selection, String[] selectionArgs) {
+    public Bundle call(String method, String arg, Bundle extras) {
+        switch (method) {
+            case InventoryContract.METHOD_SET_DIAGNOSTICS:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Diagnostics requires an enabled flag.");
+                }
+                mDiagnostics.setEnabled(extras.getBoolean(InventoryContract.EXTRA_ENABLED),
+                        extras.getLong(InventoryContract.EXTRA_THRESHOLD_MILLIS,
+                                InventoryDiagnostics.DEFAULT_THRESHOLD_MILLIS));
+                return null;
+            case InventoryContract.METHOD_GET_DIAGNOSTICS_ENABLED:
+                Bundle status = new Bundle();
+                status.putBoolean(InventoryContract.EXTRA_ENABLED, mDiagnostics.isEnabled());
+                return status;
+            case InventoryContract.METHOD_DUMP_DIAGNOSTICS:
+                Bundle result = new Bundle();
+                result.putBoolean(InventoryContract.EXTRA_ENABLED, mDiagnostics.isEnabled());
+                result.putString(InventoryContract.EXTRA_DIAGNOSTICS, mDiagnostics.dump());
+                return result;
+            case InventoryContract.METHOD_CLEAR_DIAGNOSTICS:
+                mDiagnostics.clear();
+                return null;
+            default:
+                long startNanos = System.nanoTime();
+                try {
+                    return callMethod(method, arg, extras);
+                } finally {
+                    if (mDiagnostics.isEnabled()) {
+                        mDiagnostics.record(mInventoryDbHelper, "call " + method, null,
+                                null, null, startNanos);
+                    }
+                }
+        }
+    }
+
+    private Bundle callMethod(String method, String arg, Bundle extras) {
+        switch (method) {
+            case InventoryContract.METHOD_TRANSFER_STOCK:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Transfer requires an item, locations and quantity.");
+                }
+                transferStock(extras.getLong(InventoryContract.EXTRA_ITEM_ID),
+                        extras.getLong(InventoryContract.EXTRA_FROM_LOCATION_ID),
+                        extras.getLong(InventoryContract.EXTRA_TO_LOCATION_ID),
+                        extras.getInt(InventoryContract.EXTRA_QUANTITY));
+                return null;
+            case InventoryContract.METHOD_BATCH_DELETE:
+                long[] itemIds = getItemIds(extras);
+                if (itemIds.length == 0) {
+                    return rowsAffected(0);
+                }
+                return deleteItems(inSelection(InventoryEntry._ID, itemIds));
+            case InventoryContract.METHOD_DELETE_ALL:
+                return deleteItems(null);
+            case InventoryContract.METHOD_BATCH_CHANGE_PRICE:
+                return rowsAffected(batchChangePrice(getItemIds(extras),
+                        extras.getInt(InventoryContract.EXTRA_PRICE_CHANGE),
+                        extras.getBoolean(InventoryContract.EXTRA_PRICE_CHANGE_IS_PERCENT)));
+            case InventoryContract.METHOD_BATCH_ADJUST_STOCK:
+                return batchAdjustStock(getItemIds(extras), extras.getInt(InventoryContract.EXTRA_QUANTITY));
+            case InventoryContract.METHOD_RECORD_SALE:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Sale requires an item and quantity.");
+                }
+                recordSale(extras.getLong(InventoryContract.EXTRA_ITEM_ID),
+                        extras.getInt(InventoryContract.EXTRA_QUANTITY));
+                return null;
+            case InventoryContract.METHOD_UNDO_DELETE:
+                if (extras == null || !extras.containsKey(InventoryContract.EXTRA_DELETED_AT)) {
+                    throw new IllegalArgumentException("Undo requires the deletion time of the delete.");
+                }
+                return rowsAffected(undoDelete(extras.getLong(InventoryContract.EXTRA_DELETED_AT)));
+            case InventoryContract.METHOD_PURGE_DELETED:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Purge requires a deletion time and limit.");
+                }
+                return rowsAffected(purgeDeleted(extras.getLong(InventoryContract.EXTRA_DELETED_BEFORE),
+                        extras.getInt(InventoryContract.EXTRA_LIMIT)));
+            case InventoryContract.METHOD_REFRESH_FORECASTS:
+                if (extras == null) {
+                    throw new IllegalArgumentException("Refresh requires a limit.");
+                }
+                return rowsAffected(refreshForecasts(extras.getInt(InventoryContract.EXTRA_LIMIT)));
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    private static long[] getItemIds(Bundle extras) {
+        long[] itemIds = extras == null ? null : extras.getLongArray(InventoryContract.EXTRA_ITEM_IDS);
+        if (itemIds == null) {
+            throw new IllegalArgumentException("Batch operation requires item ids.");
+        }
+        return itemIds;
+    }
+
+    private static Bundle rowsAffected(int rows) {
+        Bundle result = new Bundle();
+        result.putInt(InventoryContract.EXTRA_ROWS_AFFECTED, rows);
+        return result;
+    }
+
+    /**
+     * Selection matching the given item ids. The ids are written into the statement rather than
+     * bound, as a selection can hold more items than SQLite allows bound arguments.
+     */
+    private static String inSelection(String column, long[] ids) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(ids[i]);
+        }
+        return selection.append(')').toString();
+    }
+
+    /**
+     * Soft deletes the selected items in one statement. The result holds the deletion time given
+     * to them, which {@link InventoryContract#METHOD_UNDO_DELETE} takes to restore this delete only.
+     */
+    private Bundle deleteItems(String selection) {
+        long deletedAt = nextDeletedAt();
+        int rowsDeleted = softDeleteItems(selection, null, deletedAt);
+        if (rowsDeleted != 0) {
+            notifyBatchChange();
+        }
+
+        Bundle result = rowsAffected(rowsDeleted);
+        result.putLong(InventoryContract.EXTRA_DELETED_AT, deletedAt);
+        return result;
+    }
+
+    /**
+     * Marks the selected items as deleted, all with the same deletion time so that they can be
+     * restored together. Rows are only removed later by {@link #purgeDeleted}, which is scheduled
+     * to run once the undo window has passed.
+     */
+    private int softDeleteItems(String selection, String[] selectionArgs, long deletedAt) {
+        ContentValues deletedValues = new ContentValues();
+        deletedValues.put(InventoryEntry.COLUMN_DELETED_AT, deletedAt);
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsDeleted = database.update(InventoryEntry.TABLE_NAME, deletedValues,
+                liveSelection(selection), selectionArgs);
+        if (rowsDeleted != 0) {
+            InventoryPurgeService.schedule(getContext());
+        }
+        return rowsDeleted;
+    }
+
+    /**
+     * Deletion time for a new delete, kept increasing so two deletes never share a time
+     */
+    private synchronized long nextDeletedAt() {
+        mLastDeletedAt = Math.max(System.currentTimeMillis(), mLastDeletedAt + 1);
+        return mLastDeletedAt;
+    }
+
+    /**
+     * Restores the items removed by the delete with the given deletion time, if they have not been
+     * purged yet
+     */
+    private int undoDelete(long deletedAt) {
+        ContentValues restoredValues = new ContentValues();
+        restoredValues.putNull(InventoryEntry.COLUMN_DELETED_AT);
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsRestored = database.update(InventoryEntry.TABLE_NAME, restoredValues,
+                InventoryEntry.COLUMN_DELETED_AT + "=?", new String[]{String.valueOf(deletedAt)});
+
+        if (rowsRestored != 0) {
+            getContext().getContentResolver().notifyChange(InventoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
+        }
+        return rowsRestored;
+    }
+
+    /**
+     * Physically removes up to limit items deleted before the given time, in a transaction of its
+     * own so the write lock is only held for one small chunk. Their stock rows are removed by
+     * trigger. Purged items were already hidden, so no change is notified.
+     */
+    private int purgeDeleted(long deletedBefore, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Purge requires a valid limit.");
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsPurged;
+        database.beginTransaction();
+        try {
+            rowsPurged = database.delete(InventoryEntry.TABLE_NAME, InventoryEntry._ID + " IN (SELECT " +
+                    InventoryEntry._ID + " FROM " + InventoryEntry.TABLE_NAME + " WHERE " +
+                    InventoryEntry.COLUMN_DELETED_AT + " IS NOT NULL AND " +
+                    InventoryEntry.COLUMN_DELETED_AT + " < ? LIMIT " + limit + ")",
+                    new String[]{String.valueOf(deletedBefore)});
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        return rowsPurged;
+    }
+
+    /**
+     * Selection on a table with an item id column, such as the stock table, matching rows of items
+     * that have not been deleted. Correlated, so each row costs one lookup by item id.
+     */
+    private static String liveItemSelection(String table) {
+        return "EXISTS (SELECT 1 FROM " + InventoryEntry.TABLE_NAME + " WHERE " +
+                InventoryEntry.TABLE_NAME + "." + InventoryEntry._ID + " = " +
+                table + "." + StockEntry.COLUMN_ITEM_ID + " AND " +
+                InventoryEntry.TABLE_NAME + "." + InventoryEntry.COLUMN_DELETED_AT + " IS NULL)";
+    }
+
+    /**
+     * Restricts a selection on the items table to items that have not been deleted
+     */
+    private static String liveSelection(String selection) {
+        String live = InventoryEntry.COLUMN_DELETED_AT + " IS NULL";
+        if (TextUtils.isEmpty(selection)) {
+            return live;
+        }
+        return live + " AND (" + selection + ")";
+    }
+
+    /**
+     * Changes the price of the given items in one statement, either by a percentage or by a fixed
+     * amount. Prices are rounded to whole units and never go below zero.
+     */
+    private int batchChangePrice(long[] itemIds, int change, boolean isPercent) {
+        if (itemIds.length == 0 || change == 0) {
+            return 0;
+        }
+
+        String newPrice;
+        if (isPercent) {
+            newPrice = "CAST(ROUND(" + InventoryEntry.COLUMN_PRICE + " * (100 + ?) / 100.0) AS INTEGER)";
+        } else {
+            newPrice = InventoryEntry.COLUMN_PRICE + " + ?";
+        }
+
         SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                    InventoryEntry.COLUMN_PRICE + " = MAX(0, " + newPrice + ")" +
+                    " WHERE " + liveSelection(inSelection(InventoryEntry._ID, itemIds)), new Object[]{change});
+            rowsUpdated = (int) changes(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyBatchChange();
+        }
+        return rowsUpdated;
+    }
+
+    /**
+     * Adds to or takes from the default location stock of the given items in one statement. Stock
+     * never goes below zero, and the item totals follow through the stock triggers. Stock in other
+     * locations is left alone, so the result also holds the number of items that had less than
+     * the change in the default location and were only taken down to zero.
+     */
+    private Bundle batchAdjustStock(long[] itemIds, int change) {
+        if (itemIds.length == 0 || change == 0) {
+            return rowsAffected(0);
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsUpdated;
+        int rowsClamped = 0;
+        database.beginTransaction();
+        try {
+            if (change < 0) {
+                rowsClamped = (int) DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " +
+                        StockEntry.TABLE_NAME + " WHERE " +
+                        StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID +
+                        " AND " + inSelection(StockEntry.COLUMN_ITEM_ID, itemIds) +
+                        " AND " + liveItemSelection(StockEntry.TABLE_NAME) +
+                        " AND " + StockEntry.COLUMN_QUANTITY + " < " + -change, null);
+                recordSales(database, "MIN(" + -change + ", " +
+                                stockQuantityOf(LocationEntry.DEFAULT_LOCATION_ID) + ")",
+                        liveSelection(inSelection(InventoryEntry._ID, itemIds)), null);
+            }
+            database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " +
+                    StockEntry.COLUMN_QUANTITY + " = MAX(0, " + StockEntry.COLUMN_QUANTITY + " + ?)" +
+                    " WHERE " + StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID +
+                    " AND " + inSelection(StockEntry.COLUMN_ITEM_ID, itemIds) +
+                    " AND " + liveItemSelection(StockEntry.TABLE_NAME), new Object[]{change});
+            rowsUpdated = (int) changes(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsUpdated != 0) {
+            notifyBatchChange();
+        }
+        Bundle result = rowsAffected(rowsUpdated);
+        result.putInt(InventoryContract.EXTRA_ROWS_CLAMPED, rowsClamped);
+        return result;
+    }
+
+    /**
+     * Takes sold items out of the default location stock, updating the sales rate of the item
+     */
+    private void recordSale(long itemId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Sale requires a valid quantity.");
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            recordSales(database, String.valueOf(quantity), liveSelection(InventoryEntry._ID + "=" + itemId), null);
+            if (changes(database) == 0) {
+                throw new IllegalArgumentException("Invalid item for sale: " + itemId);
+            }
+            database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " +
+                    StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " - ?" +
+                    " WHERE " + StockEntry.COLUMN_ITEM_ID + "=? AND " +
+                    StockEntry.COLUMN_LOCATION_ID + "=" + LocationEntry.DEFAULT_LOCATION_ID,
+                    new Object[]{quantity, itemId});
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Not enough stock to sell " + quantity + " items.");
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyStockChange(LocationEntry.DEFAULT_LOCATION_ID);
+    }
+
+    /**
+     * Folds a sale into the sales rate of the matching items, for those where the sold expression
+     * is positive. With a window of W days and D days since the last sale, the rate becomes
+     * (rate * W + sold) / (W + D): older sales fade out as time passes, and a steady seller settles
+     * on its true rate. Only the item row is read, so each sale costs the same however long the
+     * item has been selling. Must run before the stock changes, as the sold expression may read
+     * the quantities it replaces; the forecast then follows through trigger.
+     */
+    private static void recordSales(SQLiteDatabase database, String soldExpression, String selection,
+                                     String[] selectionArgs) {
+        String sold = "(" + soldExpression + ")";
+        String window = String.valueOf(InventoryEntry.SALES_RATE_WINDOW_DAYS);
+        long now = System.currentTimeMillis();
+
+        Object[] bindArgs = new Object[2 + (selectionArgs == null ? 0 : selectionArgs.length)];
+        bindArgs[0] = now;
+        bindArgs[1] = now;
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, bindArgs, 2, selectionArgs.length);
+        }
+
+        database.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                InventoryEntry.COLUMN_SALES_RATE + " = (" + InventoryEntry.COLUMN_SALES_RATE + " * " + window +
+                " + " + sold + ") / (" + window + " + MAX(0, COALESCE((? - " +
+                InventoryEntry.COLUMN_LAST_SALE_AT + ") / 86400000.0, 0))), " +
+                InventoryEntry.COLUMN_LAST_SALE_AT + " = ?" +
+                " WHERE (" + selection + ") AND " + sold + " > 0", bindArgs);
+    }
+
+    /**
+     * Moves forecasts that have already passed while the item still has stock to the rate decayed
+     * until now, up to limit items, so items that stopped selling drop down the soonest stock-out
+     * order. Reads the past forecasts from the stock-out index. Updates only the forecast, so the
+     * stored rate keeps fading from the last sale.
+     */
+    private int refreshForecasts(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Refresh requires a valid limit.");
+        }
+
+        String window = String.valueOf(InventoryEntry.SALES_RATE_WINDOW_DAYS);
+        String decayedRate = "(" + InventoryEntry.COLUMN_SALES_RATE + " * " + window + " / (" + window +
+                " + MAX(0, (?1 - " + InventoryEntry.COLUMN_LAST_SALE_AT + ") / 86400000.0)))";
+        long now = System.currentTimeMillis();
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        int rowsRefreshed;
+        database.beginTransaction();
+        try {
+            database.execSQL("UPDATE " + InventoryEntry.TABLE_NAME + " SET " +
+                    InventoryEntry.COLUMN_STOCKOUT_AT + " = ?1 + CAST(" + InventoryEntry.COLUMN_QUANTITY +
+                    " / " + decayedRate + " * 86400000 AS INTEGER)" +
+                    " WHERE " + InventoryEntry._ID + " IN (SELECT " + InventoryEntry._ID + " FROM " +
+                    InventoryEntry.TABLE_NAME + " WHERE " + liveSelection(InventoryEntry.COLUMN_STOCKOUT_AT +
+                    " < ?1 AND " + InventoryEntry.COLUMN_QUANTITY + " > 0 AND " +
+                    InventoryEntry.COLUMN_SALES_RATE + " > 0 AND " +
+                    InventoryEntry.COLUMN_LAST_SALE_AT + " IS NOT NULL") + " LIMIT " + limit + ")",
+                    new Object[]{now});
+            rowsRefreshed = (int) changes(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        if (rowsRefreshed != 0) {
+            getContext().getContentResolver().notifyChange(InventoryEntry.CONTENT_URI, null);
+        }
+        return rowsRefreshed;
+    }
+
+    /** Expression for the stock of the item being updated in a location */
+    private static String stockQuantityOf(long locationId) {
+        return "COALESCE((SELECT " + StockEntry.COLUMN_QUANTITY + " FROM " + StockEntry.TABLE_NAME +
+                " WHERE " + StockEntry.COLUMN_ITEM_ID + " = " + InventoryEntry.TABLE_NAME + "." +
+                InventoryEntry._ID + " AND " + StockEntry.COLUMN_LOCATION_ID + " = " + locationId + "), 0)";
+    }
+
+    /**
+     * Moves stock of an item between two locations in one transaction. The item total is left
+     * unchanged, as the stock triggers take off and add back the same quantity.
+     */
+    private void transferStock(long itemId, long fromLocationId, long toLocationId, int quantity) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Transfer requires a valid quantity.");
+        }
+        if (fromLocationId == toLocationId) {
+            throw new IllegalArgumentException("Transfer requires two different locations.");
+        }
+
+        SQLiteDatabase database = mInventoryDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            if (!isLiveItem(database, itemId)) {
+                throw new IllegalArgumentException("Invalid item for transfer: " + itemId);
+            }
+            database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " +
+                    StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " - ?" +
+                    " WHERE " + StockEntry.COLUMN_ITEM_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=?",
+                    new Object[]{quantity, itemId, fromLocationId});
+            if (changes(database) == 0) {
+                throw new IllegalArgumentException("Item has no stock in location " + fromLocationId);
+            }
+            if (!addStock(database, itemId, toLocationId, quantity)) {
+                throw new IllegalArgumentException("Invalid location for transfer: " + toLocationId);
+            }
+            database.setTransactionSuccessful();
+        } catch (SQLiteConstraintException e) {
+            throw new IllegalArgumentException("Not enough stock to transfer " + quantity + " items.");
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyStockChange(fromLocationId);
+        notifyStockChange(toLocationId);
+    }
+
+    /**
+     * Sets the stock row of an item in a location, adding it if needed. Returns false if the item
+     * or location does not exist.
+     */
+    private boolean setStock(SQLiteDatabase database, long itemId, long locationId, int quantity) {
+        ContentValues stockValues = new ContentValues();
+        stockValues.put(StockEntry.COLUMN_QUANTITY, quantity);
+        int rowsUpdated = database.update(StockEntry.TABLE_NAME, stockValues,
+                StockEntry.COLUMN_ITEM_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=?",
+                new String[]{String.valueOf(itemId), String.valueOf(locationId)});
+        if (rowsUpdated != 0) {
+            return true;
+        }
+        return insertStock(database, itemId, locationId, quantity);
+    }
+
+    /**
+     * Adds to the stock row of an item in a location, adding the row if needed. Returns false if
+     * the item or location does not exist.
+     */
+    private boolean addStock(SQLiteDatabase database, long itemId, long locationId, int quantity) {
+        database.execSQL("UPDATE " + StockEntry.TABLE_NAME + " SET " +
+                StockEntry.COLUMN_QUANTITY + " = " + StockEntry.COLUMN_QUANTITY + " + ?" +
+                " WHERE " + StockEntry.COLUMN_ITEM_ID + "=? AND " + StockEntry.COLUMN_LOCATION_ID + "=?",
+                new Object[]{quantity, itemId, locationId});
+        if (changes(database) != 0) {
+            return true;
+        }
+        return insertStock(database, itemId, locationId, quantity);
+    }
+
+    private boolean insertStock(SQLiteDatabase database, long itemId, long locationId, int quantity) {
+        if (!isLiveItem(database, itemId)
+                || !exists(database, LocationEntry.TABLE_NAME, locationId)) {
+            return false;
+        }
+        ContentValues stockValues = new ContentValues();
+        stockValues.put(StockEntry.COLUMN_ITEM_ID, itemId);
+        stockValues.put(StockEntry.COLUMN_LOCATION_ID, locationId);
+        stockValues.put(StockEntry.COLUMN_QUANTITY, quantity);
+        database.insertOrThrow(StockEntry.TABLE_NAME, null, stockValues);
+        return true;
+    }
+
+    private static boolean isLiveItem(SQLiteDatabase database, long itemId) {
+        return DatabaseUtils.queryNumEntries(database, InventoryEntry.TABLE_NAME,
+                liveSelection(InventoryEntry._ID + "=?"), new String[]{String.valueOf(itemId)}) > 0;
+    }
+
+    private static boolean exists(SQLiteDatabase database, String table, long id) {
+        return DatabaseUtils.queryNumEntries(database, table, BaseColumns._ID + "=?",
+                new String[]{String.valueOf(id)}) > 0;
+    }
+
+    /** Number of rows changed by the last statement run with execSQL */
+    private static long changes(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT changes()", null);
+    }
+
+    private void notifyStockChange(long locationId) {
+        // Item totals and item stock rows are under the items URI
+        getContext().getContentResolver().notifyChange(InventoryEntry.CONTENT_URI, null);
+        getContext().getContentResolver().notifyChange(LocationEntry.buildStockUri(locationId), null);
+    }
+
+    /**
+     * Notifies every URI of the provider at once, as batch operations change items along with
+     * their stock in all locations, whose rows show the item name and price too
+     */
+    private void notifyBatchChange() {
+        getContext().getContentResolver().notifyChange(InventoryContract.BASE_CONTENT_URI, null);
+    }
+
+    /** Id in the second path segment of a nested URI, such as the item of items/#/stock */
+    private static long parseParentId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Soft deletes items until they are purged. Callers that offer an undo delete through
+     * {@link InventoryContract#METHOD_BATCH_DELETE} or {@link InventoryContract#METHOD_DELETE_ALL}
+     * instead, which return the deletion time to restore.
+     */
+    @Override
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+        try {
+            return deleteUri(uri, selection, selectionArgs);
+        } finally {
+            if (mDiagnostics.isEnabled()) {
+                mDiagnostics.record(mInventoryDbHelper, "delete", uri,
+                        itemRowsStatement(uri, selection), selectionArgsFor(uri, selectionArgs), startNanos);
+            }
+        }
+    }
+
+    /**
+     * SELECT reading the items that an update or delete on the URI changes, for diagnostics to
+     * explain. Returns null for URIs that only change rows by key.
+     */
+    private static String itemRowsStatement(Uri uri, String selection) {
+        switch (sUriMatcher.match(uri)) {
+            case ITEMS:
+                return "SELECT " + InventoryEntry._ID + " FROM " + InventoryEntry.TABLE_NAME +
+                        " WHERE " + liveSelection(selection);
+            case ITEM_ID:
+                return "SELECT " + InventoryEntry._ID + " FROM " + InventoryEntry.TABLE_NAME +
+                        " WHERE " + liveSelection(InventoryEntry._ID + "=?");
+            default:
+                return null;
+        }
+    }
+
+    /** Selection arguments of the statement from {@link #itemRowsStatement} */
+    private static String[] selectionArgsFor(Uri uri, String[] selectionArgs) {
+        switch (sUriMatcher.match(uri)) {
+            case ITEMS:
+                return selectionArgs;
+            case ITEM_ID:
+                return withIdArgs(null, ContentUris.parseId(uri));
+            default:
+                return null;
+        }
+    }
+
+    private int deleteUri(Uri uri, String selection, String[] selectionArgs) {
         int rowsDeleted;
 
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case ITEMS:
-                rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = softDeleteItems(selection, selectionArgs, nextDeletedAt());
                 break;
             case ITEM_ID:
                 selection = InventoryEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                rowsDeleted = database.delete(InventoryEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = softDeleteItems(selection, selectionArgs, nextDeletedAt());
                 break;
             default:
                 throw new IllegalArgumentException("Invalid uri for delete: " + uri);
@@ -167,6 +1055,8 @@ public class InventoryProvider extends ContentProvider {
 
         if (rowsDeleted != 0) {
             getContext().getContentResolver().notifyChange(uri, null);
+            // Stock of deleted items is hidden from location stock
+            getContext().getContentResolver().notifyChange(LocationEntry.CONTENT_URI, null);
         }
         return rowsDeleted;
     }
@@ -179,6 +1069,15 @@ public class InventoryProvider extends ContentProvider {
                 return InventoryEntry.CONTENT_LIST_TYPE;
             case ITEM_ID:
                 return InventoryEntry.CONTENT_ITEM_TYPE;
+            case ITEM_STOCK:
+            case LOCATION_STOCK:
+                return StockEntry.CONTENT_LIST_TYPE;
+            case ITEM_LOCATION_STOCK:
+                return StockEntry.CONTENT_ITEM_TYPE;
+            case LOCATIONS:
+                return LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATION_ID:
+                return LocationEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Invalid uri: " + uri + " with match: " + match);
         }
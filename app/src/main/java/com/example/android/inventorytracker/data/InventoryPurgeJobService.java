@@ -0,0 +1,61 @@
+package com.example.android.inventorytracker.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Process;
+
+/**
+ * Runs the purge of deleted items while the device is idle, on a thread of its own as jobs are
+ * started on the main thread. Stopped jobs are retried, as the purge resumes where it left off.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class InventoryPurgeJobService extends JobService {
+
+    private static final int PURGE_JOB_ID = 1;
+
+    private Thread mPurgeThread;
+
+    /**
+     * Schedules the purge to run while the device is idle, no sooner than the given delay
+     */
+    static void schedule(Context context, long delayMillis) {
+        JobInfo purgeJob = new JobInfo.Builder(PURGE_JOB_ID,
+                new ComponentName(context, InventoryPurgeJobService.class))
+                .setMinimumLatency(delayMillis)
+                .setRequiresDeviceIdle(true)
+                .build();
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        jobScheduler.schedule(purgeJob);
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters jobParameters) {
+        mPurgeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                InventoryPurgeService.purge(InventoryPurgeJobService.this);
+                if (!Thread.currentThread().isInterrupted()) {
+                    jobFinished(jobParameters, false);
+                }
+            }
+        }, InventoryPurgeJobService.class.getSimpleName());
+        mPurgeThread.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters jobParameters) {
+        // The device is no longer idle; stop after the current chunk and purge the rest later
+        if (mPurgeThread != null) {
+            mPurgeThread.interrupt();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.inventorytracker.data;
+
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Physically removes soft deleted items in the background. Rows are removed in small chunks, each
+ * in its own transaction, so a large delete never holds the write lock long enough to block
+ * readers or the UI thread. Forecasts left behind by items that stopped selling are refreshed
+ * the same way afterwards. Runs from {@link InventoryPurgeJobService} while the device is idle
+ * where JobScheduler is available, and from an alarm after the undo window on older devices.
+ */
+public class InventoryPurgeService extends IntentService {
+
+    private static final String LOG_TAG = InventoryPurgeService.class.getSimpleName();
+
+    /** Items deleted more recently than this can still be restored, and are left alone */
+    public static final long UNDO_WINDOW_MILLIS = 60 * 1000;
+
+    /** Number of items removed, or forecasts refreshed, per transaction */
+    private static final int PURGE_CHUNK_SIZE = 200;
+
+    /** Pause between chunks, letting waiting readers and writers take the database */
+    private static final long PURGE_CHUNK_PAUSE_MILLIS = 50;
+
+    public InventoryPurgeService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Schedules a purge once the undo window of an item deleted now has passed. Scheduling again
+     * replaces the pending purge, so a run of deletes is purged together after the last one.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            InventoryPurgeJobService.schedule(context, UNDO_WINDOW_MILLIS);
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            PendingIntent purgeIntent = PendingIntent.getService(context, 0,
+                    new Intent(context, InventoryPurgeService.class), PendingIntent.FLAG_UPDATE_CURRENT);
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                    SystemClock.elapsedRealtime() + UNDO_WINDOW_MILLIS, purgeIntent);
+        }
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        purge(this);
+    }
+
+    /**
+     * Purges items whose undo window has passed, then refreshes the forecasts of items that
+     * stopped selling, chunk by chunk, until none are left or the thread is interrupted
+     */
+    static void purge(Context context) {
+        Bundle extras = new Bundle();
+        extras.putLong(InventoryContract.EXTRA_DELETED_BEFORE, System.currentTimeMillis() - UNDO_WINDOW_MILLIS);
+        extras.putInt(InventoryContract.EXTRA_LIMIT, PURGE_CHUNK_SIZE);
+
+        int totalPurged = callInChunks(context, InventoryContract.METHOD_PURGE_DELETED, extras);
+        if (totalPurged != 0) {
+            Log.v(LOG_TAG, "Purged " + totalPurged + " deleted items.");
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            int totalRefreshed = callInChunks(context, InventoryContract.METHOD_REFRESH_FORECASTS, extras);
+            if (totalRefreshed != 0) {
+                Log.v(LOG_TAG, "Refreshed " + totalRefreshed + " forecasts.");
+            }
+        }
+    }
+
+    /**
+     * Calls a provider method that changes up to a chunk of items, pausing between chunks, until
+     * a chunk comes back short or the thread is interrupted. Returns the number of items changed.
+     */
+    private static int callInChunks(Context context, String method, Bundle extras) {
+        int total = 0;
+        while (true) {
+            Bundle result = context.getContentResolver().call(InventoryContract.InventoryEntry.CONTENT_URI,
+                    method, null, extras);
+            int rows = result == null ? 0 : result.getInt(InventoryContract.EXTRA_ROWS_AFFECTED);
+            total += rows;
+            if (rows < PURGE_CHUNK_SIZE) {
+                break;
+            }
+            try {
+                Thread.sleep(PURGE_CHUNK_PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,504 @@
+package com.example.android.inventorytracker.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.inventorytracker.data.InventoryContract.InventoryEntry;
+import com.example.android.inventorytracker.data.InventoryContract.LocationEntry;
+import com.example.android.inventorytracker.data.InventoryContract.StockEntry;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load and soak harness for InventoryProvider. Seeds an inventory, then replays a mix of list
+ * scans, sales, edits, restocks, transfers and searches from several threads for a fixed time, and
+ * reports throughput, latency percentiles, database growth and lost updates.
+ *
+ * Skipped unless enabled, as it takes minutes. From the project directory:
+ * ./gradlew testDebugUnitTest --tests '*InventoryProviderStressTest' -Pstress
+ * Sizes are set with -Pstress.items, -Pstress.threads, -Pstress.durationSeconds and -Pstress.seed.
+ * The report is written to app/build/reports/stress for comparing runs.
+ *
+ * Robolectric runs every SQLite call of the process on a single thread, so the worker threads
+ * never reach the database at the same time. The latencies include waiting for that thread, and
+ * show how the provider copes with queued work rather than with SQLite's own locking.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(shadows = InventoryProviderStressTest.ShadowQuietContentResolver.class)
+public class InventoryProviderStressTest {
+
+    private static final String[] CATEGORIES = {"Beverage", "Snack", "Canned Goods", "Toiletries",
+            "Household", "Frozen", "Bakery", "Dairy", "Produce", "School Supplies"};
+
+    /** Operations of the workload, with their share of the mix in percent */
+    private static final String[] OPERATIONS = {"scan", "sale", "edit", "restock", "transfer", "search"};
+    private static final int[] OPERATION_WEIGHTS = {20, 40, 10, 10, 5, 15};
+
+    /** Rows read by a list scan, about one screen plus what the list keeps around it */
+    private static final int SCAN_PAGE_SIZE = 100;
+
+    /**
+     * Every this many items, one is left to the edits of a single thread, so the quantity it sets
+     * can be checked against the old total without sales or restocks racing it
+     */
+    private static final int EDIT_SLICE = 10;
+
+    private final int mItemCount = Integer.getInteger("stress.items", 100000);
+    private final int mThreadCount = Integer.getInteger("stress.threads", 4);
+    private final int mDurationSeconds = Integer.getInteger("stress.durationSeconds", 60);
+    private final long mSeed = Long.getLong("stress.seed", 42L);
+    private final String mReportDir = System.getProperty("stress.reportDir", "build/reports/stress");
+
+    private Context mContext;
+    private InventoryProvider mProvider;
+
+    /** Units sold and restocked by the workload, to check the totals against afterwards */
+    private final AtomicLong mUnitsSold = new AtomicLong();
+    private final AtomicLong mUnitsRestocked = new AtomicLong();
+    /** Units added, or taken away when negative, by setting item quantities in the editor */
+    private final AtomicLong mUnitsEdited = new AtomicLong();
+
+    /** First unexpected exception of the workload, for the report */
+    private final AtomicReference<Throwable> mFirstError = new AtomicReference<>();
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue("Stress harness runs with -Pstress", Boolean.getBoolean("stress.enabled"));
+
+        mContext = RuntimeEnvironment.application;
+        mContext.deleteDatabase("inventorytracker.db");
+    }
+
+    @Test
+    public void mixedWorkload() throws Exception {
+        long seedStart = System.nanoTime();
+        long initialUnits = seedInventory();
+        long seedMillis = (System.nanoTime() - seedStart) / 1000000;
+        long initialSize = databaseSize();
+
+        ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = InventoryContract.CONTENT_AUTHORITY;
+        mProvider = new InventoryProvider();
+        mProvider.attachInfo(mContext, providerInfo);
+
+        final long endTime = System.nanoTime() + mDurationSeconds * 1000000000L;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Worker> workers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < mThreadCount; i++) {
+            final Worker worker = new Worker(new Random(mSeed + i), i);
+            workers.add(worker);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        worker.run(endTime);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "stress-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long runStart = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double runSeconds = (System.nanoTime() - runStart) / 1e9;
+
+        Report report = new Report();
+        report.line("items", mItemCount);
+        report.line("threads", mThreadCount);
+        report.line("durationSeconds", mDurationSeconds);
+        report.line("seed", mSeed);
+        report.line("seedMillis", seedMillis);
+        report.line("sqliteAccess", "serialized on one thread by Robolectric");
+
+        long totalOperations = 0;
+        long totalErrors = 0;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            LatencyLog merged = new LatencyLog();
+            long rejected = 0;
+            for (Worker worker : workers) {
+                merged.addAll(worker.mLatencies[op]);
+                rejected += worker.mRejected[op];
+                totalErrors += worker.mErrors[op];
+            }
+            totalOperations += merged.mCount;
+            report.operation(OPERATIONS[op], merged, rejected, runSeconds);
+        }
+        report.line("throughputOpsPerSecond", String.format(Locale.US, "%.1f", totalOperations / runSeconds));
+        report.line("errors", totalErrors);
+        Throwable firstError = mFirstError.get();
+        report.line("firstError", firstError == null ? "none" : firstError + " at " +
+                (firstError.getStackTrace().length == 0 ? "unknown" : firstError.getStackTrace()[0]));
+
+        long finalSize = databaseSize();
+        report.line("databaseBytesInitial", initialSize);
+        report.line("databaseBytesFinal", finalSize);
+        report.line("databaseGrowthBytes", finalSize - initialSize);
+
+        // Every unit sold or restocked must show in the stock table and in the item totals
+        SQLiteDatabase database = new InventoryDbHelper(mContext).getReadableDatabase();
+        long expectedUnits = initialUnits - mUnitsSold.get() + mUnitsRestocked.get() + mUnitsEdited.get();
+        long stockUnits = DatabaseUtils.longForQuery(database, "SELECT COALESCE(SUM(" +
+                StockEntry.COLUMN_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME, null);
+        long totalUnits = DatabaseUtils.longForQuery(database, "SELECT COALESCE(SUM(" +
+                InventoryEntry.COLUMN_QUANTITY + "), 0) FROM " + InventoryEntry.TABLE_NAME, null);
+        long mismatchedItems = DatabaseUtils.longForQuery(database, "SELECT COUNT(*) FROM " +
+                InventoryEntry.TABLE_NAME + " WHERE " + InventoryEntry.COLUMN_QUANTITY + " != (SELECT " +
+                "COALESCE(SUM(" + StockEntry.COLUMN_QUANTITY + "), 0) FROM " + StockEntry.TABLE_NAME +
+                " WHERE " + StockEntry.COLUMN_ITEM_ID + " = " + InventoryEntry.TABLE_NAME + "." +
+                InventoryEntry._ID + ")", null);
+        database.close();
+
+        report.line("unitsExpected", expectedUnits);
+        report.line("unitsInStock", stockUnits);
+        report.line("unitsInItemTotals", totalUnits);
+        report.line("lostUpdates", Math.abs(expectedUnits - stockUnits));
+        report.line("itemTotalMismatches", mismatchedItems);
+        report.write(new File(mReportDir, "InventoryProviderStressTest.txt"));
+
+        assertEquals("Unexpected errors during the workload", 0, totalErrors);
+        assertEquals("Stock lost or gained units", expectedUnits, stockUnits);
+        assertEquals("Item totals out of step with stock", stockUnits, totalUnits);
+        assertEquals("Items whose total differs from their stock", 0, mismatchedItems);
+    }
+
+    /**
+     * Seeds items with realistic names, prices and quantities, with some stock spread over the
+     * other locations. Written directly in one transaction, as going through the provider would
+     * take most of the run. Returns the number of units in stock.
+     */
+    private long seedInventory() {
+        Random random = new Random(mSeed);
+        InventoryDbHelper dbHelper = new InventoryDbHelper(mContext);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        long units = 0;
+
+        database.beginTransaction();
+        try {
+            ContentValues itemValues = new ContentValues();
+            ContentValues stockValues = new ContentValues();
+            for (int i = 0; i < mItemCount; i++) {
+                String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                itemValues.clear();
+                itemValues.put(InventoryEntry.COLUMN_ITEM_NAME, String.format(Locale.US, "%s %06d", category, i));
+                itemValues.put(InventoryEntry.COLUMN_DESCRIPTION, category + " item, pack of " + (1 + random.nextInt(24)));
+                itemValues.put(InventoryEntry.COLUMN_PRICE, 5 + random.nextInt(2000));
+                long itemId = database.insertOrThrow(InventoryEntry.TABLE_NAME, null, itemValues);
+
+                // Most items sit in the store, some also in the back room or warehouse
+                for (long locationId = LocationEntry.DEFAULT_LOCATION_ID; locationId <= 3; locationId++) {
+                    if (locationId != LocationEntry.DEFAULT_LOCATION_ID && random.nextInt(4) != 0) {
+                        continue;
+                    }
+                    int quantity = (int) Math.min(500, Math.abs(random.nextGaussian()) * 40);
+                    stockValues.clear();
+                    stockValues.put(StockEntry.COLUMN_ITEM_ID, itemId);
+                    stockValues.put(StockEntry.COLUMN_LOCATION_ID, locationId);
+                    stockValues.put(StockEntry.COLUMN_QUANTITY, quantity);
+                    database.insertOrThrow(StockEntry.TABLE_NAME, null, stockValues);
+                    units += quantity;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        dbHelper.close();
+        return units;
+    }
+
+    private long databaseSize() {
+        File databaseFile = mContext.getDatabasePath("inventorytracker.db");
+        long size = databaseFile.length();
+        File walFile = new File(databaseFile.getPath() + "-wal");
+        return walFile.exists() ? size + walFile.length() : size;
+    }
+
+    /**
+     * Runs the workload on one thread, logging the latency of every operation. Operations the
+     * provider turns down, such as selling an item that is out of stock, count as rejected.
+     * Edits only touch the items this thread owns, which the other operations leave alone.
+     */
+    private class Worker {
+
+        private final Random mRandom;
+        private final int mIndex;
+        private final LatencyLog[] mLatencies = new LatencyLog[OPERATIONS.length];
+        private final long[] mRejected = new long[OPERATIONS.length];
+        private final long[] mErrors = new long[OPERATIONS.length];
+
+        Worker(Random random, int index) {
+            mRandom = random;
+            mIndex = index;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                mLatencies[i] = new LatencyLog();
+            }
+        }
+
+        void run(long endTime) {
+            while (System.nanoTime() < endTime) {
+                int op = pickOperation();
+                long start = System.nanoTime();
+                try {
+                    runOperation(op);
+                } catch (IllegalArgumentException e) {
+                    mRejected[op]++;
+                } catch (RuntimeException e) {
+                    mErrors[op]++;
+                    mFirstError.compareAndSet(null, e);
+                }
+                mLatencies[op].add(System.nanoTime() - start);
+            }
+        }
+
+        private int pickOperation() {
+            int roll = mRandom.nextInt(100);
+            for (int op = 0; op < OPERATION_WEIGHTS.length; op++) {
+                roll -= OPERATION_WEIGHTS[op];
+                if (roll < 0) {
+                    return op;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Picks popular items far more often, as real sales cluster on a few best sellers. Skips
+         * the items set aside for edits.
+         */
+        private long pickItemId() {
+            long itemId;
+            do {
+                double skewed = Math.pow(mRandom.nextDouble(), 3);
+                itemId = 1 + (long) (skewed * mItemCount);
+            } while (itemId % EDIT_SLICE == 0);
+            return itemId;
+        }
+
+        /**
+         * Picks one of the items this thread edits: the n-th multiple of EDIT_SLICE belongs to
+         * thread n % threads. Returns -1 when there are too few items for this thread to own one.
+         */
+        private long pickOwnedItemId() {
+            long ownedCount = (mItemCount / EDIT_SLICE - mIndex) / mThreadCount + 1;
+            long slice;
+            do {
+                double skewed = Math.pow(mRandom.nextDouble(), 3);
+                slice = mIndex + (long) (skewed * ownedCount) * mThreadCount;
+            } while (slice == 0 && ownedCount > 1);
+            return slice == 0 || slice * EDIT_SLICE > mItemCount ? -1 : slice * EDIT_SLICE;
+        }
+
+        /** Reads the total quantity of an item */
+        private int quantityOf(Uri itemUri) {
+            Cursor cursor = mProvider.query(itemUri, new String[]{InventoryEntry.COLUMN_QUANTITY},
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    throw new IllegalStateException("Missing item " + itemUri);
+                }
+                return cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void runOperation(int op) {
+            Bundle extras = new Bundle();
+            switch (OPERATIONS[op]) {
+                case "scan":
+                    readAll(mProvider.query(InventoryEntry.CONTENT_URI, null, null, null,
+                            InventoryEntry.COLUMN_ITEM_NAME + " LIMIT " + SCAN_PAGE_SIZE), SCAN_PAGE_SIZE);
+                    break;
+                case "sale":
+                    int sold = 1 + mRandom.nextInt(3);
+                    extras.putLong(InventoryContract.EXTRA_ITEM_ID, pickItemId());
+                    extras.putInt(InventoryContract.EXTRA_QUANTITY, sold);
+                    mProvider.call(InventoryContract.METHOD_RECORD_SALE, null, extras);
+                    mUnitsSold.addAndGet(sold);
+                    break;
+                case "edit":
+                    // Saves the editor form as EditorActivity does, quantity included, which sets
+                    // the store stock and records a sale when the quantity goes down
+                    long editedItemId = pickOwnedItemId();
+                    if (editedItemId == -1) {
+                        break;
+                    }
+                    Uri itemUri = ContentUris.withAppendedId(InventoryEntry.CONTENT_URI, editedItemId);
+                    int oldQuantity = quantityOf(itemUri);
+                    int newQuantity = Math.max(0, oldQuantity - 10 + mRandom.nextInt(21));
+                    ContentValues values = new ContentValues();
+                    values.put(InventoryEntry.COLUMN_PRICE, 5 + mRandom.nextInt(2000));
+                    values.put(InventoryEntry.COLUMN_DESCRIPTION, "Edited " + mRandom.nextInt(1000));
+                    values.put(InventoryEntry.COLUMN_QUANTITY, newQuantity);
+                    // Quantities below the stock of the other locations are turned down before
+                    // anything changes, and count as rejected
+                    if (mProvider.update(itemUri, values, null, null) != 0) {
+                        mUnitsEdited.addAndGet(newQuantity - oldQuantity);
+                    }
+                    break;
+                case "restock":
+                    int restocked = 10 + mRandom.nextInt(50);
+                    extras.putLongArray(InventoryContract.EXTRA_ITEM_IDS, new long[]{pickItemId()});
+                    extras.putInt(InventoryContract.EXTRA_QUANTITY, restocked);
+                    Bundle result = mProvider.call(InventoryContract.METHOD_BATCH_ADJUST_STOCK, null, extras);
+                    mUnitsRestocked.addAndGet(restocked * result.getInt(InventoryContract.EXTRA_ROWS_AFFECTED));
+                    break;
+                case "transfer":
+                    long fromLocationId = 1 + mRandom.nextInt(3);
+                    extras.putLong(InventoryContract.EXTRA_ITEM_ID, pickItemId());
+                    extras.putLong(InventoryContract.EXTRA_FROM_LOCATION_ID, fromLocationId);
+                    extras.putLong(InventoryContract.EXTRA_TO_LOCATION_ID, 1 + fromLocationId % 3);
+                    extras.putInt(InventoryContract.EXTRA_QUANTITY, 1 + mRandom.nextInt(5));
+                    mProvider.call(InventoryContract.METHOD_TRANSFER_STOCK, null, extras);
+                    break;
+                case "search":
+                    String prefix = CATEGORIES[mRandom.nextInt(CATEGORIES.length)] + " " + mRandom.nextInt(10);
+                    readAll(mProvider.query(InventoryEntry.CONTENT_URI, null,
+                            InventoryEntry.COLUMN_ITEM_NAME + " LIKE ?", new String[]{prefix + "%"},
+                            InventoryEntry.COLUMN_ITEM_NAME + " LIMIT " + SCAN_PAGE_SIZE), SCAN_PAGE_SIZE);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown operation: " + OPERATIONS[op]);
+            }
+        }
+
+        /** Reads rows the way the list adapter binds them */
+        private void readAll(Cursor cursor, int maxRows) {
+            try {
+                int nameIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_ITEM_NAME);
+                int quantityIndex = cursor.getColumnIndex(InventoryEntry.COLUMN_QUANTITY);
+                int rows = 0;
+                while (rows < maxRows && cursor.moveToNext()) {
+                    cursor.getString(nameIndex);
+                    cursor.getInt(quantityIndex);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Content resolver whose change notifications go nowhere, as nothing observes them and the
+     * shadow resolver records them in a list that is not meant for many threads
+     */
+    @Implements(ContentResolver.class)
+    public static class ShadowQuietContentResolver extends ShadowContentResolver {
+
+        @Implementation
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer, boolean syncToNetwork) {
+        }
+    }
+
+    /**
+     * Growable list of latencies in nanoseconds, kept per thread so logging needs no locking
+     */
+    private static class LatencyLog {
+
+        private long[] mNanos = new long[1024];
+        private int mCount;
+
+        void add(long nanos) {
+            if (mCount == mNanos.length) {
+                mNanos = Arrays.copyOf(mNanos, mCount * 2);
+            }
+            mNanos[mCount++] = nanos;
+        }
+
+        void addAll(LatencyLog other) {
+            for (int i = 0; i < other.mCount; i++) {
+                add(other.mNanos[i]);
+            }
+        }
+
+        /** Latency in milliseconds at the given percentile, after sorting */
+        double percentileMillis(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * mCount) - 1;
+            return mNanos[Math.max(0, Math.min(mCount - 1, index))] / 1e6;
+        }
+
+        void sort() {
+            Arrays.sort(mNanos, 0, mCount);
+        }
+    }
+
+    /**
+     * Report of key=value lines, printed and written to a file that later runs can be diffed with
+     */
+    private static class Report {
+
+        private final StringBuilder mText = new StringBuilder();
+
+        void line(String key, Object value) {
+            mText.append(key).append('=').append(value).append('\n');
+        }
+
+        void operation(String name, LatencyLog latencies, long rejected, double runSeconds) {
+            latencies.sort();
+            line(name + ".count", latencies.mCount);
+            line(name + ".rejected", rejected);
+            line(name + ".opsPerSecond", String.format(Locale.US, "%.1f", latencies.mCount / runSeconds));
+            line(name + ".p50Millis", String.format(Locale.US, "%.3f", latencies.percentileMillis(50)));
+            line(name + ".p95Millis", String.format(Locale.US, "%.3f", latencies.percentileMillis(95)));
+            line(name + ".p99Millis", String.format(Locale.US, "%.3f", latencies.percentileMillis(99)));
+            line(name + ".maxMillis", String.format(Locale.US, "%.3f", latencies.percentileMillis(100)));
+        }
+
+        void write(File file) throws IOException {
+            System.out.print(mText);
+            file.getParentFile().mkdirs();
+            Writer writer = new FileWriter(file);
+            try {
+                writer.write(mText.toString());
+            } finally {
+                writer.close();
+            }
+        }
+    }
+}